@@ -0,0 +1,22 @@
+package org.a;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+@Entity
+public class Bar {
+
+    @Id
+    private Long id;
+
+    private String foo;
+
+    String getFoo() {
+        return foo;
+    }
+
+    public void setFoo(String f) {
+        foo = f;
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.a;
+
+import jakarta.persistence.MappedSuperclass;
+
+@MappedSuperclass
+public class Base {
+
+    private String name;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String n) {
+        name = n;
+    }
+
+}
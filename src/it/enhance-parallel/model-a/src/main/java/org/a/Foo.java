@@ -0,0 +1,15 @@
+package org.a;
+
+public class Foo {
+
+    private String foo;
+
+    String getFoo() {
+        return foo;
+    }
+
+    public void setFoo(String f) {
+        foo = f;
+    }
+
+}
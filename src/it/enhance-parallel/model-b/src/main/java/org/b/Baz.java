@@ -0,0 +1,14 @@
+package org.b;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+import org.a.Base;
+
+@Entity
+public class Baz extends Base {
+
+    @Id
+    private Long id;
+
+}
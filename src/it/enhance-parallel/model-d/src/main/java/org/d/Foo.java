@@ -0,0 +1,15 @@
+package org.d;
+
+public class Foo {
+
+    private String foo;
+
+    String getFoo() {
+        return foo;
+    }
+
+    public void setFoo(String f) {
+        foo = f;
+    }
+
+}
@@ -0,0 +1,41 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+File buildLog = new File(basedir, "build.log");
+if (!buildLog.exists()) {
+    throw new FileNotFoundException("File should exist: " + buildLog);
+}
+List<String> listOfStrings = Files.readAllLines(buildLog.toPath());
+assert listOfStrings.any { it.contains("Using the MultiThreadedBuilder implementation with a thread count of 4") };
+assert !listOfStrings.any { it.contains("not marked as thread-safe") };
+
+for (String module : ["a", "b", "c", "d"]) {
+    File classesFolder = new File(basedir, "model-" + module + "/target/classes");
+    File barClassFile = new File(classesFolder, "org/" + module + "/Bar.class");
+    if (!barClassFile.exists()) {
+        throw new FileNotFoundException("File should exist: " + barClassFile);
+    }
+    File fooClassFile = new File(classesFolder, "org/" + module + "/Foo.class");
+    if (!fooClassFile.exists()) {
+        throw new FileNotFoundException("File should exist: " + fooClassFile);
+    }
+    assert new String(Files.readAllBytes(barClassFile.toPath()), StandardCharsets.ISO_8859_1).contains('$$_hibernate_');
+    assert !new String(Files.readAllBytes(fooClassFile.toPath()), StandardCharsets.ISO_8859_1).contains('$$_hibernate_');
+    assert listOfStrings.contains("[INFO] Succesfully enhanced class file: " + barClassFile);
+    assert listOfStrings.contains("[INFO] Skipping file: " + fooClassFile);
+}
+
+// the entity extends a mapped superclass from the compile class path
+File bazClassFile = new File(basedir, "model-b/target/classes/org/b/Baz.class");
+assert new String(Files.readAllBytes(bazClassFile.toPath()), StandardCharsets.ISO_8859_1).contains('$$_hibernate_');
+assert listOfStrings.contains("[INFO] Succesfully enhanced class file: " + bazClassFile);
+File baseClassFile = new File(basedir, "model-a/target/classes/org/a/Base.class");
+assert listOfStrings.contains("[INFO] Succesfully enhanced class file: " + baseClassFile);
+
+File cacheFolder = new File(basedir, "target/enhance-cache");
+if (!cacheFolder.isDirectory()) {
+    throw new FileNotFoundException("Folder should exist: " + cacheFolder);
+}
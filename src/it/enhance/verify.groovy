@@ -62,14 +62,15 @@ assert listOfStrings.contains("[DEBUG] Determining class name for file: " + barC
 assert listOfStrings.contains("[INFO] Succesfully discovered types for classes in file: " + barClassFile);
 assert listOfStrings.contains("[DEBUG] Trying to discover types for classes in file: " + fooClassFile);
 assert listOfStrings.contains("[DEBUG] Determining class name for file: " + fooClassFile);
-assert listOfStrings.contains("[INFO] Succesfully discovered types for classes in file: " + fooClassFile);
+assert listOfStrings.contains("[DEBUG] Skipping type discovery, no persistence annotations in class file: " + fooClassFile);
 assert listOfStrings.contains("[DEBUG] Ending type discovery");
 assert listOfStrings.contains("[DEBUG] Starting class enhancement");
 assert listOfStrings.contains("[DEBUG] Trying to enhance class file: " + barClassFile);
-assert listOfStrings.contains("[INFO] Succesfully cleared the contents of file: " + barClassFile);
+assert !new File(barClassFile.getPath() + ".tmp").exists();
 assert listOfStrings.contains("[DEBUG] " + amountOfBytes + " bytes were succesfully written to file: " +barClassFile);
 assert listOfStrings.contains("[INFO] Succesfully enhanced class file: " + barClassFile);
 assert listOfStrings.contains("[DEBUG] Trying to enhance class file: " + fooClassFile);
+assert listOfStrings.contains("[DEBUG] Class does not reference any persistence type and does not need enhancement: org.foo.Foo");
 assert listOfStrings.contains("[INFO] Skipping file: " + fooClassFile);
 assert listOfStrings.contains("[DEBUG] Ending class enhancement");
 assert listOfStrings.contains("[DEBUG] Ending execution of enhance mojo");
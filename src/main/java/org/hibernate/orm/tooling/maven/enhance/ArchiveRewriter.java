@@ -0,0 +1,344 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Rewrites a zip archive from its central directory. The entries that are
+ * not replaced, including their local headers and data descriptors, are
+ * copied byte for byte without being inflated and deflated again. Replaced
+ * entries keep their name, extra fields and compression method.
+ * <p>
+ * Data prepended to the archive, such as the launch script of an executable
+ * JAR, is kept, and so are entry offsets that were not adjusted for it.
+ * Zip64 archives are not supported, opening them returns null.
+ */
+class ArchiveRewriter implements Closeable {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int ZIP64_MARKER = 0xFFFF;
+    private static final long ZIP64_LONG_MARKER = 0xFFFFFFFFL;
+    private static final int ENCRYPTED_FLAG = 1;
+    private static final int DATA_DESCRIPTOR_FLAG = 8;
+
+    private final File archive;
+    private final FileChannel channel;
+    private final ByteBuffer endOfCentralDirectory;
+    private final ByteBuffer centralDirectory;
+    private final long centralDirectoryOffset;
+    // the amount of bytes prepended to the archive without adjusting the offsets of its entries
+    private final long shift;
+    private final List<Entry> entries;
+
+    private ArchiveRewriter(
+            File archive,
+            FileChannel channel,
+            ByteBuffer endOfCentralDirectory,
+            ByteBuffer centralDirectory,
+            long centralDirectoryOffset,
+            long shift,
+            List<Entry> entries) {
+        this.archive = archive;
+        this.channel = channel;
+        this.endOfCentralDirectory = endOfCentralDirectory;
+        this.centralDirectory = centralDirectory;
+        this.centralDirectoryOffset = centralDirectoryOffset;
+        this.shift = shift;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the central directory of the archive, or returns null if the
+     * archive uses Zip64 extensions.
+     */
+    static ArchiveRewriter open(File archive) throws IOException {
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            long archiveSize = channel.size();
+            int tailSize = (int)Math.min(archiveSize, 0xFFFF + END_OF_CENTRAL_DIRECTORY_SIZE);
+            ByteBuffer tail = read(channel, archiveSize - tailSize, tailSize);
+            int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+                end--;
+            }
+            if (end < 0) {
+                throw new ZipException("No central directory found in: " + archive);
+            }
+            int count = Short.toUnsignedInt(tail.getShort(end + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            if (count == ZIP64_MARKER || directorySize == ZIP64_LONG_MARKER || directoryOffset == ZIP64_LONG_MARKER) {
+                channel.close();
+                return null;
+            }
+            ByteBuffer endOfCentralDirectory = tail.slice(end, tailSize - end).order(ByteOrder.LITTLE_ENDIAN);
+            long shift = archiveSize - tailSize + end - directorySize - directoryOffset;
+            if (shift < 0) {
+                throw new ZipException("Invalid central directory in: " + archive);
+            }
+            ByteBuffer directory = read(channel, directoryOffset + shift, (int)directorySize);
+            List<Entry> entries = new ArrayList<Entry>();
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                if (directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                    throw new ZipException("Invalid central directory in: " + archive);
+                }
+                int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+                int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+                int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+                Entry entry = new Entry(
+                    position,
+                    new String(directory.array(), position + CENTRAL_DIRECTORY_ENTRY_SIZE, nameLength, StandardCharsets.UTF_8),
+                    Short.toUnsignedInt(directory.getShort(position + 8)),
+                    Short.toUnsignedInt(directory.getShort(position + 10)),
+                    Integer.toUnsignedLong(directory.getInt(position + 20)),
+                    Integer.toUnsignedLong(directory.getInt(position + 24)),
+                    Integer.toUnsignedLong(directory.getInt(position + 42)));
+                if (entry.compressedSize == ZIP64_LONG_MARKER
+                        || entry.size == ZIP64_LONG_MARKER
+                        || entry.headerOffset == ZIP64_LONG_MARKER) {
+                    channel.close();
+                    return null;
+                }
+                entries.add(entry);
+                position += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+            }
+            return new ArchiveRewriter(archive, channel, endOfCentralDirectory, directory, directoryOffset, shift, entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the archive to the target file. The bytes of the entries whose
+     * name is selected are handed to the replacement function, which returns
+     * the new bytes of the entry or null to keep it as it is. Returns the
+     * number of entries that were replaced.
+     */
+    int rewrite(Path target, Predicate<String> selected, BiFunction<String, byte[], byte[]> replacement) throws IOException {
+        List<Entry> entriesInArchiveOrder = new ArrayList<Entry>(entries);
+        entriesInArchiveOrder.sort(Comparator.comparingLong(entry -> entry.headerOffset));
+        int replaced = 0;
+        try (FileChannel out = FileChannel.open(
+                target,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // whatever precedes the first entry, such as the stub of a self-extracting archive
+            long start = entriesInArchiveOrder.isEmpty() ? centralDirectoryOffset : entriesInArchiveOrder.get(0).headerOffset;
+            transfer(0, start + shift, out);
+            for (int i = 0; i < entriesInArchiveOrder.size(); i++) {
+                Entry entry = entriesInArchiveOrder.get(i);
+                long end = i + 1 < entriesInArchiveOrder.size()
+                    ? entriesInArchiveOrder.get(i + 1).headerOffset
+                    : centralDirectoryOffset;
+                long newOffset = out.position() - shift;
+                byte[] newBytes = null;
+                if (isReplaceable(entry) && selected.test(entry.name)) {
+                    newBytes = replacement.apply(entry.name, readEntry(entry));
+                }
+                if (newBytes == null) {
+                    transfer(entry.headerOffset + shift, end + shift, out);
+                } else {
+                    writeEntry(entry, newBytes, out);
+                    replaced++;
+                }
+                centralDirectory.putInt(entry.directoryPosition + 42, (int)newOffset);
+            }
+            long newDirectoryOffset = out.position() - shift;
+            write(out, centralDirectory.duplicate().clear());
+            ByteBuffer newEnd = ByteBuffer.allocate(endOfCentralDirectory.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+            newEnd.put(endOfCentralDirectory.duplicate().clear());
+            newEnd.putInt(16, (int)newDirectoryOffset);
+            write(out, newEnd.clear());
+        }
+        return replaced;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean isReplaceable(Entry entry) {
+        return (entry.flags & ENCRYPTED_FLAG) == 0
+            && (entry.method == ZipEntry.STORED || entry.method == ZipEntry.DEFLATED)
+            && entry.size < Integer.MAX_VALUE
+            && entry.compressedSize < Integer.MAX_VALUE;
+    }
+
+    private byte[] readEntry(Entry entry) throws IOException {
+        ByteBuffer header = readLocalHeader(entry);
+        long dataOffset = entry.headerOffset
+            + shift
+            + LOCAL_FILE_HEADER_SIZE
+            + Short.toUnsignedInt(header.getShort(26))
+            + Short.toUnsignedInt(header.getShort(28));
+        byte[] data = read(channel, dataOffset, (int)entry.compressedSize).array();
+        if (entry.method == ZipEntry.STORED) {
+            return data;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] bytes = new byte[(int)entry.size];
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != bytes.length) {
+                throw new ZipException("Truncated entry " + entry.name + " in: " + archive);
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the entry with the new bytes, compressed like the original entry
+     * and with its size and CRC in the local header rather than in a data
+     * descriptor, and updates its record in the central directory to match.
+     */
+    private void writeEntry(Entry entry, byte[] bytes, FileChannel out) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        byte[] data = entry.method == ZipEntry.STORED ? bytes : deflate(bytes);
+        ByteBuffer originalHeader = readLocalHeader(entry);
+        int headerLength = LOCAL_FILE_HEADER_SIZE
+            + Short.toUnsignedInt(originalHeader.getShort(26))
+            + Short.toUnsignedInt(originalHeader.getShort(28));
+        ByteBuffer header = read(channel, entry.headerOffset + shift, headerLength);
+        int flags = entry.flags & ~DATA_DESCRIPTOR_FLAG;
+        header.putShort(6, (short)flags);
+        header.putInt(14, (int)crc.getValue());
+        header.putInt(18, data.length);
+        header.putInt(22, bytes.length);
+        write(out, header.clear());
+        write(out, ByteBuffer.wrap(data));
+        centralDirectory.putShort(entry.directoryPosition + 8, (short)flags);
+        centralDirectory.putInt(entry.directoryPosition + 16, (int)crc.getValue());
+        centralDirectory.putInt(entry.directoryPosition + 20, data.length);
+        centralDirectory.putInt(entry.directoryPosition + 24, bytes.length);
+    }
+
+    private ByteBuffer readLocalHeader(Entry entry) throws IOException {
+        ByteBuffer header = read(channel, entry.headerOffset + shift, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header for entry " + entry.name + " in: " + archive);
+        }
+        return header;
+    }
+
+    private void transfer(long start, long end, FileChannel out) throws IOException {
+        long position = start;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, out);
+            if (transferred <= 0) {
+                throw new ZipException("Unexpected end of archive: " + archive);
+            }
+            position += transferred;
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private static class Entry {
+
+        final int directoryPosition;
+        final String name;
+        final int flags;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long headerOffset;
+
+        Entry(int directoryPosition, String name, int flags, int method, long compressedSize, long size, long headerOffset) {
+            this.directoryPosition = directoryPosition;
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+    }
+
+}
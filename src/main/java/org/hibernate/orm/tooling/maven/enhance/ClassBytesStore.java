@@ -0,0 +1,160 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the bytes of the class files read during type discovery, so that the
+ * enhancement phase does not have to read them from disk a second time, and
+ * so that project types resolved while enhancing other classes are not read
+ * again either. Once the configured amount of memory is used, further bytes
+ * are spilled to a temporary file that is memory-mapped when they are read
+ * back. The bytes are kept until the store is closed.
+ */
+class ClassBytesStore implements Closeable {
+
+    private final long maxBytesInMemory;
+    private final File spillDirectory;
+    private final Map<File, byte[]> inMemory = new ConcurrentHashMap<File, byte[]>();
+    private final Map<File, long[]> spilled = new ConcurrentHashMap<File, long[]>();
+    private final AtomicLong bytesInMemory = new AtomicLong();
+    private final AtomicLong spillPosition = new AtomicLong();
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private MappedByteBuffer spillBuffer;
+
+    ClassBytesStore(long maxBytesInMemory, File spillDirectory) {
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.spillDirectory = spillDirectory;
+    }
+
+    void put(File classFile, byte[] bytes) throws IOException {
+        File key = classFile.getAbsoluteFile();
+        byte[] previous = inMemory.remove(key);
+        if (previous != null) {
+            bytesInMemory.addAndGet(-previous.length);
+        }
+        if (bytesInMemory.addAndGet(bytes.length) <= maxBytesInMemory) {
+            inMemory.put(key, bytes);
+            spilled.remove(key);
+        } else {
+            bytesInMemory.addAndGet(-bytes.length);
+            long position = spillPosition.getAndAdd(bytes.length);
+            FileChannel channel = getSpillChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            spilled.put(key, new long[] { position, bytes.length });
+        }
+    }
+
+    /**
+     * Returns the bytes kept for the given class file, or null if no bytes
+     * were kept for it.
+     */
+    byte[] get(File classFile) throws IOException {
+        File key = classFile.getAbsoluteFile();
+        byte[] bytes = inMemory.get(key);
+        if (bytes != null) {
+            return bytes;
+        }
+        long[] region = spilled.get(key);
+        if (region != null) {
+            bytes = new byte[(int)region[1]];
+            readSpilled(region[0], bytes);
+        }
+        return bytes;
+    }
+
+    boolean hasSpilled() {
+        return spillFile != null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        inMemory.clear();
+        spilled.clear();
+        bytesInMemory.set(0);
+        spillBuffer = null;
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+
+    private synchronized FileChannel getSpillChannel() throws IOException {
+        if (spillChannel == null) {
+            if (spillDirectory != null) {
+                spillDirectory.mkdirs();
+                spillFile = Files.createTempFile(spillDirectory.toPath(), "class-bytes", ".tmp");
+            } else {
+                spillFile = Files.createTempFile("class-bytes", ".tmp");
+            }
+            spillChannel = FileChannel.open(
+                spillFile,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        return spillChannel;
+    }
+
+    private void readSpilled(long position, byte[] bytes) throws IOException {
+        long end = position + bytes.length;
+        if (end <= Integer.MAX_VALUE) {
+            getSpillBuffer(end).slice((int)position, bytes.length).get(bytes);
+        } else {
+            // a single mapping cannot exceed 2 GiB, read the rest of the spill file directly
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (spillChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spill file: " + spillFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the spill file at least up to the given end. The mapping covers the
+     * bytes written so far rather than the space reserved by concurrent spills,
+     * which may not have been written yet.
+     */
+    private synchronized ByteBuffer getSpillBuffer(long end) throws IOException {
+        if (spillBuffer == null || spillBuffer.capacity() < end) {
+            long size = Math.min(spillChannel.size(), Integer.MAX_VALUE);
+            spillBuffer = spillChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return spillBuffer.duplicate();
+    }
+
+}
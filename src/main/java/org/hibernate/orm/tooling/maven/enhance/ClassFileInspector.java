@@ -0,0 +1,333 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Reads the constant pool of a class file in place to tell cheaply whether
+ * the Hibernate enhancer can have anything to do with the class. Whenever the
+ * bytes cannot be understood the inspector answers conservatively, so that the
+ * class is handed to the enhancer as before.
+ */
+final class ClassFileInspector {
+
+    private static final byte[][] PERSISTENCE_ANNOTATIONS = {
+        descriptor("jakarta/persistence/Entity"),
+        descriptor("jakarta/persistence/Embeddable"),
+        descriptor("jakarta/persistence/MappedSuperclass")
+    };
+
+    private static final byte[][] MANAGED_INTERFACES = {
+        "org/hibernate/engine/spi/Managed".getBytes(StandardCharsets.UTF_8),
+        "org/hibernate/engine/spi/ManagedEntity".getBytes(StandardCharsets.UTF_8),
+        "org/hibernate/engine/spi/ManagedComposite".getBytes(StandardCharsets.UTF_8),
+        "org/hibernate/engine/spi/ManagedMappedSuperclass".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int CONSTANT_POOL_OFFSET = 10;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ClassFileInspector() {
+    }
+
+    /**
+     * Returns false only if the constant pool holds none of the descriptors of
+     * the Entity, Embeddable and MappedSuperclass annotations.
+     */
+    static boolean isPersistenceType(byte[] bytes) {
+        if (!hasMagic(bytes)) {
+            return true;
+        }
+        int count = readUnsignedShort(bytes, CONSTANT_POOL_OFFSET - 2);
+        int offset = CONSTANT_POOL_OFFSET;
+        for (int index = 1; index < count; index++) {
+            if (offset >= bytes.length) {
+                return true;
+            }
+            int tag = bytes[offset];
+            if (tag == CONSTANT_UTF8 && offset + 3 <= bytes.length) {
+                int length = readUnsignedShort(bytes, offset + 1);
+                for (byte[] annotation : PERSISTENCE_ANNOTATIONS) {
+                    if (regionEquals(bytes, offset + 3, length, annotation)) {
+                        return true;
+                    }
+                }
+            }
+            int size = entrySize(bytes, offset);
+            if (size < 0) {
+                return true;
+            }
+            offset += size;
+            if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+                index++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the class reads or writes a field declared by a class
+     * whose name, in the usual dotted form, matches the predicate. This is what
+     * extended enhancement rewrites in classes that are not persistent themselves.
+     */
+    static boolean referencesFieldsOf(byte[] bytes, Predicate<String> classNames) {
+        int[] offsets = constantPoolOffsets(bytes);
+        if (offsets == null) {
+            return true;
+        }
+        try {
+            return referencesFieldsOf(bytes, offsets, classNames);
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the class directly implements one of the interfaces the
+     * enhancer adds, just like the enhancer itself decides that a class was
+     * already enhanced. Bytes that cannot be understood are reported as not
+     * enhanced, so that the enhancer gets to look at them.
+     */
+    static boolean isEnhanced(byte[] bytes) {
+        int[] offsets = constantPoolOffsets(bytes);
+        if (offsets == null) {
+            return false;
+        }
+        try {
+            // access flags, this class and super class precede the interfaces
+            int offset = offsets[0] + 6;
+            int count = readUnsignedShort(bytes, offset);
+            for (int i = 0; i < count; i++) {
+                int classOffset = offsets[readUnsignedShort(bytes, offset + 2 + 2 * i)];
+                int nameOffset = offsets[readUnsignedShort(bytes, classOffset + 1)];
+                int length = readUnsignedShort(bytes, nameOffset + 1);
+                for (byte[] managedInterface : MANAGED_INTERFACES) {
+                    if (regionEquals(bytes, nameOffset + 3, length, managedInterface)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the names of the super class and of every class mentioned in the
+     * type or generic signature of a field, which covers embedded attribute
+     * types and association targets. Classes of the java packages are left out.
+     * Returns null if the bytes cannot be understood.
+     */
+    static Set<String> referencedTypes(byte[] bytes) {
+        int[] offsets = constantPoolOffsets(bytes);
+        if (offsets == null) {
+            return null;
+        }
+        try {
+            Set<String> result = new TreeSet<String>();
+            int offset = offsets[0] + 4;
+            int superClass = readUnsignedShort(bytes, offset);
+            if (superClass != 0) {
+                addTypeName(result, utf8(bytes, offsets, readUnsignedShort(bytes, offsets[superClass] + 1)));
+            }
+            offset += 2;
+            offset += 2 + 2 * readUnsignedShort(bytes, offset);
+            int fieldCount = readUnsignedShort(bytes, offset);
+            offset += 2;
+            for (int i = 0; i < fieldCount; i++) {
+                addTypeNames(result, utf8(bytes, offsets, readUnsignedShort(bytes, offset + 4)));
+                int attributeCount = readUnsignedShort(bytes, offset + 6);
+                offset += 8;
+                for (int j = 0; j < attributeCount; j++) {
+                    if ("Signature".equals(utf8(bytes, offsets, readUnsignedShort(bytes, offset)))) {
+                        addTypeNames(result, utf8(bytes, offsets, readUnsignedShort(bytes, offset + 6)));
+                    }
+                    offset += 6 + readInt(bytes, offset + 2);
+                }
+            }
+            return result;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the classes named in a field descriptor or signature, such as
+     * 'Ljava/util/List<Lorg/foo/Bar;>;', skipping type variables.
+     */
+    private static void addTypeNames(Set<String> typeNames, String signature) {
+        int i = 0;
+        while (i < signature.length()) {
+            char c = signature.charAt(i);
+            if (c == 'L') {
+                int end = i + 1;
+                while (signature.charAt(end) != ';' && signature.charAt(end) != '<') {
+                    end++;
+                }
+                addTypeName(typeNames, signature.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == 'T') {
+                int end = signature.indexOf(';', i);
+                if (end < 0) {
+                    return;
+                }
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static void addTypeName(Set<String> typeNames, String internalName) {
+        if (!internalName.startsWith("java/")) {
+            typeNames.add(internalName.replace('/', '.'));
+        }
+    }
+
+    private static String utf8(byte[] bytes, int[] offsets, int index) {
+        int offset = offsets[index];
+        return new String(bytes, offset + 3, readUnsignedShort(bytes, offset + 1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the offset of every constant pool entry by its index, with the
+     * offset just past the constant pool at index 0, or null if the bytes are
+     * not a well formed class file.
+     */
+    private static int[] constantPoolOffsets(byte[] bytes) {
+        if (!hasMagic(bytes)) {
+            return null;
+        }
+        int count = readUnsignedShort(bytes, CONSTANT_POOL_OFFSET - 2);
+        if (count == 0) {
+            return null;
+        }
+        int[] offsets = new int[count];
+        int offset = CONSTANT_POOL_OFFSET;
+        for (int index = 1; index < count; index++) {
+            if (offset >= bytes.length) {
+                return null;
+            }
+            offsets[index] = offset;
+            int size = entrySize(bytes, offset);
+            if (size < 0) {
+                return null;
+            }
+            offset += size;
+            if (bytes[offsets[index]] == CONSTANT_LONG || bytes[offsets[index]] == CONSTANT_DOUBLE) {
+                index++;
+            }
+        }
+        offsets[0] = offset;
+        return offsets;
+    }
+
+    private static boolean referencesFieldsOf(byte[] bytes, int[] offsets, Predicate<String> classNames) {
+        for (int index = 1; index < offsets.length; index++) {
+            if (offsets[index] != 0 && bytes[offsets[index]] == CONSTANT_FIELDREF) {
+                int classOffset = offsets[readUnsignedShort(bytes, offsets[index] + 1)];
+                int nameOffset = offsets[readUnsignedShort(bytes, classOffset + 1)];
+                String name = new String(
+                        bytes,
+                        nameOffset + 3,
+                        readUnsignedShort(bytes, nameOffset + 1),
+                        StandardCharsets.UTF_8)
+                    .replace('/', '.');
+                if (classNames.test(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasMagic(byte[] bytes) {
+        return bytes.length > CONSTANT_POOL_OFFSET
+            && (readUnsignedShort(bytes, 0) << 16 | readUnsignedShort(bytes, 2)) == MAGIC;
+    }
+
+    private static int entrySize(byte[] bytes, int offset) {
+        switch (bytes[offset]) {
+            case CONSTANT_UTF8:
+                return offset + 3 <= bytes.length ? 3 + readUnsignedShort(bytes, offset + 1) : -1;
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                return 3;
+            case CONSTANT_METHOD_HANDLE:
+                return 4;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                return 5;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                return 9;
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean regionEquals(byte[] bytes, int offset, int length, byte[] expected) {
+        return length == expected.length
+            && offset + length <= bytes.length
+            && Arrays.equals(bytes, offset, offset + length, expected, 0, length);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readUnsignedShort(bytes, offset) << 16 | readUnsignedShort(bytes, offset + 2);
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static byte[] descriptor(String internalName) {
+        return ("L" + internalName + ";").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The write stage of the enhancement: the workers hand their enhanced class
+ * files over through a bounded queue and go on with the next class while the
+ * writer threads write them. When the queue is full the worker writes the
+ * class itself, which holds enhancement back to the pace of the file system.
+ */
+class ClassFileWriter implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+    ClassFileWriter(int writers, int capacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+            writers,
+            writers,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(capacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "hibernate-enhance-writer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the write, or runs it on the calling thread when the queue is full.
+     */
+    void submit(Runnable write) {
+        executor.execute(() -> {
+            try {
+                write.run();
+            } catch (RuntimeException e) {
+                if (!failure.compareAndSet(null, e)) {
+                    failure.get().addSuppressed(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every queued write is done and rethrows the first failure.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+}
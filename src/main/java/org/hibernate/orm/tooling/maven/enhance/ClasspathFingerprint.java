@@ -0,0 +1,166 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes the state of the class path elements the enhancement depends on.
+ * <p>
+ * JARs are described by name and the hash of their central directory, which
+ * holds the name, size and CRC of every entry, so that a JAR rebuilt with
+ * other content but the same size is told apart while the same JAR in another
+ * checkout or local repository is not. The hashes are kept for the lifetime of
+ * the build, keyed by path, size and modification time, so that the modules of
+ * a reactor build read every JAR once.
+ * <p>
+ * Class directories, such as those of the sibling modules of a reactor build,
+ * are described by the number of class files they hold and the newest
+ * modification time among them.
+ */
+class ClasspathFingerprint {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_MARKER = 0xFFFF;
+    private static final long ZIP64_LONG_MARKER = 0xFFFFFFFFL;
+
+    private static final Map<String, String> ARCHIVE_HASHES = new ConcurrentHashMap<String, String>();
+
+    private ClasspathFingerprint() {
+    }
+
+    static String ofArchives(List<File> archives) throws IOException {
+        StringBuilder result = new StringBuilder();
+        for (File archive : archives) {
+            result.append(archive.getName()).append(':').append(hashArchive(archive)).append(';');
+        }
+        return result.toString();
+    }
+
+    static String ofDirectories(List<File> directories) throws IOException {
+        StringBuilder result = new StringBuilder();
+        for (File directory : directories) {
+            long[] state = describeDirectory(directory.toPath());
+            result.append(directory.getAbsolutePath())
+                .append(':').append(state[0])
+                .append(':').append(state[1])
+                .append(';');
+        }
+        return result.toString();
+    }
+
+    static String hashArchive(File archive) throws IOException {
+        String key = archive.getAbsolutePath() + ':' + archive.length() + ':' + archive.lastModified();
+        String hash = ARCHIVE_HASHES.get(key);
+        if (hash == null) {
+            byte[] centralDirectory = readCentralDirectory(archive);
+            hash = centralDirectory != null ? EnhancementManifest.hash(centralDirectory) : hashContent(archive);
+            ARCHIVE_HASHES.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of class files below the directory and the newest
+     * modification time among them.
+     */
+    private static long[] describeDirectory(Path directory) throws IOException {
+        long[] state = new long[2];
+        if (Files.isDirectory(directory)) {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        state[0]++;
+                        state[1] = Math.max(state[1], attributes.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return state;
+    }
+
+    /**
+     * Returns the central directory of the archive, or null if it is not found
+     * or uses Zip64 extensions.
+     */
+    private static byte[] readCentralDirectory(File archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            long archiveSize = channel.size();
+            int tailSize = (int)Math.min(archiveSize, 0xFFFF + END_OF_CENTRAL_DIRECTORY_SIZE);
+            ByteBuffer tail = read(channel, archiveSize - tailSize, tailSize);
+            int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+                end--;
+            }
+            if (end < 0) {
+                return null;
+            }
+            int count = Short.toUnsignedInt(tail.getShort(end + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            long shift = archiveSize - tailSize + end - directorySize - directoryOffset;
+            if (count == ZIP64_MARKER || directorySize == ZIP64_LONG_MARKER || directoryOffset == ZIP64_LONG_MARKER || shift < 0) {
+                return null;
+            }
+            return read(channel, directoryOffset + shift, (int)directorySize).array();
+        }
+    }
+
+    private static String hashContent(File archive) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(archive.toPath()), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+}
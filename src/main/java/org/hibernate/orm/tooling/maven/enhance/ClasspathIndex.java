@@ -0,0 +1,383 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import net.bytebuddy.dynamic.ClassFileLocator;
+
+/**
+ * Locates the class files of a set of JARs through an index that maps every
+ * class name to the offset of its entry in the JAR. The index is built once
+ * from the central directories of the JARs, stored in a file that is named
+ * after the paths, sizes and timestamps of the JARs, and memory mapped by
+ * every build and module that uses the same JARs afterwards. A class file is
+ * then read with a single positioned read, without opening the JAR as a zip
+ * file.
+ * <p>
+ * Opening an index marks its file as used, so that it is evicted from a
+ * shared directory like the entries of the {@link EnhancementCache}, and
+ * never while it is open. Zip64 archives are not indexed, opening an index
+ * for them fails.
+ */
+class ClasspathIndex implements ClassFileLocator {
+
+    static final String FILE_PREFIX = "classpath-";
+    static final String FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x48434958;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int ZIP64_MARKER = 0xFFFF;
+
+    private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+    private final File file;
+    private final MappedByteBuffer index;
+    private final FileChannel[] jars;
+    private final int entryCount;
+    private final int namesOffset;
+
+    private ClasspathIndex(File file, MappedByteBuffer index, FileChannel[] jars) {
+        this.file = file;
+        this.index = index;
+        this.jars = jars;
+        this.entryCount = index.getInt(12);
+        this.namesOffset = HEADER_SIZE + entryCount * RECORD_SIZE;
+    }
+
+    /**
+     * Maps the index of the given JARs from the given directory, building it
+     * first when no build indexed these JARs before.
+     */
+    static ClasspathIndex open(File directory, List<File> jarFiles) throws IOException {
+        File file = new File(directory, FILE_PREFIX + key(jarFiles) + FILE_SUFFIX);
+        if (!file.isFile()) {
+            write(file, jarFiles);
+        } else {
+            file.setLastModified(System.currentTimeMillis());
+        }
+        MappedByteBuffer index;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (index.capacity() < HEADER_SIZE
+                || index.getInt(0) != MAGIC
+                || index.getInt(4) != FORMAT_VERSION
+                || index.getInt(8) != jarFiles.size()) {
+            throw new IOException("Invalid classpath index: " + file);
+        }
+        FileChannel[] jars = new FileChannel[jarFiles.size()];
+        try {
+            for (int i = 0; i < jars.length; i++) {
+                jars[i] = FileChannel.open(jarFiles.get(i).toPath(), StandardOpenOption.READ);
+            }
+        } catch (IOException e) {
+            close(jars);
+            throw e;
+        }
+        OPEN_FILES.add(path(file));
+        return new ClasspathIndex(file, index, jars);
+    }
+
+    /**
+     * Tells whether the given index file is open in this virtual machine.
+     */
+    static boolean isOpen(Path file) {
+        return OPEN_FILES.contains(file.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public Resolution locate(String name) throws IOException {
+        int record = find(name.getBytes(StandardCharsets.UTF_8));
+        if (record < 0) {
+            return new Resolution.Illegal(name);
+        }
+        return new Resolution.Explicit(read(record));
+    }
+
+    @Override
+    public void close() throws IOException {
+        OPEN_FILES.remove(path(file));
+        close(jars);
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private int find(byte[] name) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareName(middle, name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareName(int record, byte[] name) {
+        int recordOffset = HEADER_SIZE + record * RECORD_SIZE;
+        int offset = namesOffset + index.getInt(recordOffset);
+        int length = Short.toUnsignedInt(index.getShort(recordOffset + 4));
+        for (int i = 0; i < Math.min(length, name.length); i++) {
+            int comparison = Byte.compareUnsigned(index.get(offset + i), name[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return length - name.length;
+    }
+
+    private byte[] read(int record) throws IOException {
+        int recordOffset = HEADER_SIZE + record * RECORD_SIZE;
+        FileChannel jar = jars[Short.toUnsignedInt(index.getShort(recordOffset + 6))];
+        long headerOffset = Integer.toUnsignedLong(index.getInt(recordOffset + 8));
+        int compressedSize = index.getInt(recordOffset + 12);
+        int size = index.getInt(recordOffset + 16);
+        int method = index.getShort(recordOffset + 20);
+        ByteBuffer header = read(jar, headerOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header in classpath index: " + file);
+        }
+        long dataOffset = headerOffset
+            + LOCAL_FILE_HEADER_SIZE
+            + Short.toUnsignedInt(header.getShort(26))
+            + Short.toUnsignedInt(header.getShort(28));
+        byte[] data = read(jar, dataOffset, compressedSize).array();
+        if (method == ZipEntry.STORED) {
+            return data;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] bytes = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, size - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != size) {
+                throw new ZipException("Truncated entry in classpath index: " + file);
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String key(List<File> jarFiles) {
+        StringBuilder key = new StringBuilder().append(FORMAT_VERSION);
+        for (File jar : jarFiles) {
+            key.append(File.pathSeparatorChar)
+                .append(jar.getAbsolutePath())
+                .append(':').append(jar.length())
+                .append(':').append(jar.lastModified());
+        }
+        return EnhancementManifest.hash(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(File file, List<File> jarFiles) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < jarFiles.size(); i++) {
+            readCentralDirectory(jarFiles.get(i), i, entries);
+        }
+        // the sort is stable, so of the classes found in several JARs the first one is kept
+        entries.sort(Comparator.comparing(entry -> entry.name, Arrays::compareUnsigned));
+        List<Entry> uniqueEntries = new ArrayList<Entry>();
+        int namesSize = 0;
+        for (Entry entry : entries) {
+            if (uniqueEntries.isEmpty() || !Arrays.equals(uniqueEntries.get(uniqueEntries.size() - 1).name, entry.name)) {
+                uniqueEntries.add(entry);
+                namesSize += entry.name.length;
+            }
+        }
+        ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + uniqueEntries.size() * RECORD_SIZE + namesSize);
+        index.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(jarFiles.size()).putInt(uniqueEntries.size());
+        int nameOffset = 0;
+        for (Entry entry : uniqueEntries) {
+            index.putInt(nameOffset)
+                .putShort((short)entry.name.length)
+                .putShort((short)entry.jarIndex)
+                .putInt((int)entry.headerOffset)
+                .putInt((int)entry.compressedSize)
+                .putInt((int)entry.size)
+                .putShort((short)entry.method)
+                .putShort((short)0);
+            nameOffset += entry.name.length;
+        }
+        for (Entry entry : uniqueEntries) {
+            index.put(entry.name);
+        }
+        Path directory = file.getParentFile().toPath();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, FILE_PREFIX, EnhancementCache.TEMP_FILE_SUFFIX);
+        try {
+            Files.write(tempFile, index.array());
+            Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // another module indexed the same JARs in the meantime
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void readCentralDirectory(File jarFile, int jarIndex, List<Entry> entries) throws IOException {
+        try (FileChannel jar = FileChannel.open(jarFile.toPath(), StandardOpenOption.READ)) {
+            long jarSize = jar.size();
+            int tailSize = (int)Math.min(jarSize, 0xFFFF + END_OF_CENTRAL_DIRECTORY_SIZE);
+            ByteBuffer tail = read(jar, jarSize - tailSize, tailSize);
+            int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+                end--;
+            }
+            if (end < 0) {
+                throw new ZipException("No central directory found in: " + jarFile);
+            }
+            int count = Short.toUnsignedInt(tail.getShort(end + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            if (count == ZIP64_MARKER || directoryOffset == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 archives are not indexed: " + jarFile);
+            }
+            ByteBuffer directory = read(jar, directoryOffset, (int)directorySize);
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                if (directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                    throw new ZipException("Invalid central directory in: " + jarFile);
+                }
+                int method = Short.toUnsignedInt(directory.getShort(position + 10));
+                long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+                long size = Integer.toUnsignedLong(directory.getInt(position + 24));
+                int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+                int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+                int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+                long headerOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+                String name = new String(directory.array(), position + CENTRAL_DIRECTORY_ENTRY_SIZE, nameLength, StandardCharsets.UTF_8);
+                if (name.endsWith(".class")
+                        && !name.startsWith("META-INF/")
+                        && (method == ZipEntry.STORED || method == ZipEntry.DEFLATED)
+                        && size < Integer.MAX_VALUE
+                        && compressedSize < Integer.MAX_VALUE
+                        && headerOffset < 0xFFFFFFFFL) {
+                    String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+                    entries.add(new Entry(className.getBytes(StandardCharsets.UTF_8), jarIndex, headerOffset, compressedSize, size, method));
+                }
+                position += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private static Path path(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static void close(FileChannel[] channels) throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class Entry {
+
+        final byte[] name;
+        final int jarIndex;
+        final long headerOffset;
+        final long compressedSize;
+        final long size;
+        final int method;
+
+        Entry(byte[] name, int jarIndex, long headerOffset, long compressedSize, long size, int method) {
+            this.name = name;
+            this.jarIndex = jarIndex;
+            this.headerOffset = headerOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the list of class files that the maven-compiler-plugin created in the
+ * current build (its 'createdFiles.lst'). A marker in the state directory
+ * remembers which version of the list was already handled, so that a build in
+ * which the compiler had nothing to do hands back no class files at all.
+ */
+class CompilerChangeFeed {
+
+    static final String MARKER_FILE_NAME = "compiler-feed";
+
+    private final File createdFiles;
+    private final File classesDirectory;
+    private final File marker;
+    private final String fingerprint;
+
+    CompilerChangeFeed(File createdFiles, File classesDirectory, File stateDirectory, String fingerprint) {
+        this.createdFiles = createdFiles;
+        this.classesDirectory = classesDirectory;
+        this.marker = new File(stateDirectory, MARKER_FILE_NAME);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the class files created by the compiler since the list was last
+     * marked as consumed, or null if the list cannot be trusted: when it or the
+     * marker is missing, when the configuration changed, when it names a
+     * file that does not exist in the classes directory, or when a class file
+     * it does not name changed since the list was consumed.
+     */
+    List<File> read() throws IOException {
+        if (!createdFiles.isFile() || !marker.isFile()) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(createdFiles.toPath());
+        List<String> markerLines = Files.readAllLines(marker.toPath());
+        if (markerLines.size() != 2 || !fingerprint.equals(markerLines.get(0))) {
+            return null;
+        }
+        Path classesPath = classesDirectory.toPath().toAbsolutePath().normalize();
+        List<File> result = new ArrayList<File>();
+        if (!markerLines.get(1).equals(version(bytes))) {
+            for (String line : new String(bytes, StandardCharsets.UTF_8).split("\\R")) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                // older compiler plugin versions list absolute paths
+                Path path = classesPath.resolve(line.trim()).normalize();
+                if (!path.startsWith(classesPath) || !Files.isRegularFile(path)) {
+                    return null;
+                }
+                result.add(path.toFile());
+            }
+            if (result.isEmpty()) {
+                return null;
+            }
+        }
+        return hasUnlistedChanges(classesPath, result) ? null : result;
+    }
+
+    /**
+     * Records the current version of the list, so that the next build only
+     * uses it again if the compiler rewrote it in the meantime.
+     */
+    void markConsumed() throws IOException {
+        String version = createdFiles.isFile()
+            ? version(Files.readAllBytes(createdFiles.toPath()))
+            : "";
+        marker.getParentFile().mkdirs();
+        Files.write(marker.toPath(), List.of(fingerprint, version));
+    }
+
+    /**
+     * Tells whether a class file changed after the list was last consumed
+     * without being named by it. This happens when the compiler runs twice
+     * without enhancement in between, and the second run overwrites the list
+     * of the first one, as it does without incremental compilation.
+     * <p>
+     * Only the class files of the directories the list names, and of the
+     * directories modified since the list was consumed, are looked at. Creating
+     * a class file modifies its directory, so the walk passes over the class
+     * files of all other directories without reading their attributes.
+     */
+    private boolean hasUnlistedChanges(Path classesPath, List<File> listedFiles) {
+        long consumed = marker.lastModified();
+        Set<File> listed = new HashSet<File>(listedFiles);
+        Set<File> listedDirectories = new HashSet<File>();
+        for (File listedFile : listedFiles) {
+            listedDirectories.add(listedFile.getParentFile());
+        }
+        return hasUnlistedChanges(classesPath.toFile(), consumed, listed, listedDirectories);
+    }
+
+    private static boolean hasUnlistedChanges(File directory, long consumed, Set<File> listed, Set<File> listedDirectories) {
+        String[] names = directory.list();
+        if (names == null) {
+            return false;
+        }
+        boolean checkClassFiles = listedDirectories.contains(directory) || directory.lastModified() > consumed;
+        for (String name : names) {
+            File file = new File(directory, name);
+            if (name.endsWith(".class")) {
+                if (checkClassFiles && file.lastModified() > consumed && !listed.contains(file)) {
+                    return true;
+                }
+            } else if (file.isDirectory() && hasUnlistedChanges(file, consumed, listed, listedDirectories)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    File getCreatedFiles() {
+        return createdFiles;
+    }
+
+    private String version(byte[] bytes) {
+        return createdFiles.lastModified() + ":" + EnhancementManifest.hash(bytes);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes the state of the project types the enhancement of a class depends
+ * on: its super class and the types of its fields, followed transitively,
+ * each with the hash of its class file. The enhanced byte code of a class only
+ * stays the same as long as these types do, which is why the description is
+ * part of the key of the {@link EnhancementCache}.
+ * <p>
+ * The classes of the classes directory are registered with the bytes read
+ * during type discovery, the classes of the other class directories on the
+ * class path, such as those of the sibling modules of a reactor build, are
+ * read when first needed. Types from JARs are left out, the fingerprint of the
+ * class path already covers them.
+ */
+class DependencyStates {
+
+    private static final State MISSING = new State(null, Set.of());
+
+    private final List<File> classDirectories;
+    private final Map<String, State> states = new ConcurrentHashMap<String, State>();
+
+    DependencyStates(List<File> classDirectories) {
+        this.classDirectories = classDirectories;
+    }
+
+    void register(String className, byte[] bytes) {
+        states.put(className, new State(bytes));
+    }
+
+    /**
+     * Returns the project types the given class file depends on with the hash
+     * of their class files, as a string that is the same in every build as
+     * long as none of these class files change.
+     */
+    String describe(byte[] bytes) throws IOException {
+        Map<String, String> hashes = new TreeMap<String, String>();
+        Set<String> dependencies = ClassFileInspector.referencedTypes(bytes);
+        Deque<String> queue = new ArrayDeque<String>(dependencies != null ? dependencies : Set.of());
+        while (!queue.isEmpty()) {
+            String className = queue.poll();
+            if (hashes.containsKey(className)) {
+                continue;
+            }
+            State state = getState(className);
+            if (state.hash != null) {
+                hashes.put(className, state.hash);
+                queue.addAll(state.dependencies);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        hashes.forEach((className, hash) -> result.append(className).append('=').append(hash).append(';'));
+        return result.toString();
+    }
+
+    private State getState(String className) throws IOException {
+        State state = states.get(className);
+        if (state == null) {
+            state = MISSING;
+            String path = className.replace('.', File.separatorChar) + ".class";
+            for (File classDirectory : classDirectories) {
+                File classFile = new File(classDirectory, path);
+                if (classFile.isFile()) {
+                    state = new State(Files.readAllBytes(classFile.toPath()));
+                    break;
+                }
+            }
+            State previous = states.putIfAbsent(className, state);
+            if (previous != null) {
+                state = previous;
+            }
+        }
+        return state;
+    }
+
+    private static class State {
+
+        final String hash;
+        final Set<String> dependencies;
+
+        State(byte[] bytes) {
+            Set<String> referencedTypes = ClassFileInspector.referencedTypes(bytes);
+            this.hash = EnhancementManifest.hash(bytes);
+            this.dependencies = referencedTypes != null ? referencedTypes : Set.of();
+        }
+
+        State(String hash, Set<String> dependencies) {
+            this.hash = hash;
+            this.dependencies = dependencies;
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.persistence.metamodel.Type.PersistenceType;
+
+/**
+ * Keeps the types that type discovery registered for every class, keyed by
+ * the hash of the bytes the class file had on disk at the end of the build.
+ * A later build replays these types for unchanged class files instead of
+ * handing their bytes to the enhancer again. The records are stored in a
+ * small binary file next to the enhancement manifest.
+ */
+class DiscoveryRecords {
+
+    static final String FILE_NAME = "discovery";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final PersistenceType[] PERSISTENCE_TYPES = PersistenceType.values();
+
+    private final File file;
+    private final String fingerprint;
+    private final Map<String, Entry> previousEntries;
+    private final Map<String, Map<String, PersistenceType>> pendingTypes = new ConcurrentHashMap<String, Map<String, PersistenceType>>();
+    private final Map<String, Entry> currentEntries = new ConcurrentHashMap<String, Entry>();
+    private final Set<String> scannedClasses = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger replayed = new AtomicInteger();
+
+    private DiscoveryRecords(File file, String fingerprint, Map<String, Entry> previousEntries) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * Loads the records stored in the given state directory. Records written
+     * with a different configuration fingerprint or format are discarded.
+     */
+    static DiscoveryRecords load(File stateDirectory, String fingerprint) throws IOException {
+        File file = new File(stateDirectory, FILE_NAME);
+        Map<String, Entry> previousEntries = new HashMap<String, Entry>();
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() == FORMAT_VERSION && fingerprint.equals(in.readUTF())) {
+                    int entryCount = in.readInt();
+                    for (int i = 0; i < entryCount; i++) {
+                        String className = in.readUTF();
+                        byte[] hash = new byte[in.readUnsignedByte()];
+                        in.readFully(hash);
+                        int typeCount = in.readUnsignedShort();
+                        Map<String, PersistenceType> types = new LinkedHashMap<String, PersistenceType>();
+                        for (int j = 0; j < typeCount; j++) {
+                            types.put(in.readUTF(), PERSISTENCE_TYPES[in.readUnsignedByte()]);
+                        }
+                        previousEntries.put(className, new Entry(HexFormat.of().formatHex(hash), types));
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Corrupt type discovery records: " + file, e);
+            }
+        }
+        return new DiscoveryRecords(file, fingerprint, previousEntries);
+    }
+
+    /**
+     * Returns the types recorded for the class if its bytes are the ones that
+     * were left on disk by the previous build, or null otherwise.
+     */
+    Map<String, PersistenceType> replay(String className, byte[] bytes) {
+        Entry entry = previousEntries.get(className);
+        if (entry != null && entry.hash.equals(EnhancementManifest.hash(bytes))) {
+            pendingTypes.put(className, entry.types);
+            replayed.incrementAndGet();
+            return entry.types;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the previously recorded types of every class, without checking
+     * whether the class files are unchanged.
+     */
+    Map<String, Map<String, PersistenceType>> getPreviousTypes() {
+        Map<String, Map<String, PersistenceType>> result = new HashMap<String, Map<String, PersistenceType>>();
+        previousEntries.forEach((className, entry) -> result.put(className, entry.types));
+        return result;
+    }
+
+    /**
+     * Remembers that the class was looked at in this run, so that its previous
+     * record is not retained even if it no longer holds any persistence types.
+     */
+    void scanned(String className) {
+        scannedClasses.add(className);
+    }
+
+    /**
+     * Remembers the types discovered for a class until its final bytes are known.
+     */
+    void discovered(String className, Map<String, PersistenceType> types) {
+        pendingTypes.put(className, types);
+    }
+
+    /**
+     * Records the types discovered or replayed for the class under the hash of
+     * the bytes it is left with on disk.
+     */
+    void complete(String className, byte[] bytesOnDisk) {
+        Map<String, PersistenceType> types = pendingTypes.remove(className);
+        if (types != null && !types.isEmpty()) {
+            currentEntries.put(className, new Entry(EnhancementManifest.hash(bytesOnDisk), types));
+        }
+    }
+
+    /**
+     * Keeps the records of the classes that this run did not look at.
+     */
+    void retainPrevious() {
+        previousEntries.forEach((className, entry) -> {
+            if (!scannedClasses.contains(className)) {
+                currentEntries.putIfAbsent(className, entry);
+            }
+        });
+    }
+
+    void store() throws IOException {
+        file.getParentFile().mkdirs();
+        Map<String, Entry> entries = new TreeMap<String, Entry>(currentEntries);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                byte[] hash = HexFormat.of().parseHex(entry.getValue().hash);
+                out.writeByte(hash.length);
+                out.write(hash);
+                out.writeShort(entry.getValue().types.size());
+                for (Map.Entry<String, PersistenceType> type : entry.getValue().types.entrySet()) {
+                    out.writeUTF(type.getKey());
+                    out.writeByte(type.getValue().ordinal());
+                }
+            }
+        }
+    }
+
+    int getReplayed() {
+        return replayed.get();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private static class Entry {
+
+        private final String hash;
+        private final Map<String, PersistenceType> types;
+
+        Entry(String hash, Map<String, PersistenceType> types) {
+            this.hash = hash;
+            this.types = Collections.unmodifiableMap(types);
+        }
+
+    }
+
+}
@@ -19,34 +19,97 @@ import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.shared.model.fileset.FileSet;
-import org.apache.maven.shared.model.fileset.util.FileSetManager;
 import org.hibernate.bytecode.enhance.spi.EnhancementException;
 import org.hibernate.bytecode.enhance.spi.Enhancer;
-import org.hibernate.bytecode.internal.BytecodeProviderInitiator;
+import org.hibernate.Version;
 
+import jakarta.persistence.metamodel.Type.PersistenceType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Maven mojo for performing build-time enhancement of entity objects.
+ * <p>
+ * Maven creates a mojo instance per execution, so the state kept in its
+ * fields belongs to a single module. The state shared between the modules of
+ * a parallel build, the {@link EnhancerFactory} and the {@link EnhancementCache},
+ * is safe for concurrent use.
  */
-@Mojo(name = "enhance", defaultPhase = LifecyclePhase.PROCESS_CLASSES)
+@Mojo(
+    name = "enhance",
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    requiresDependencyResolution = ResolutionScope.COMPILE,
+    threadSafe = true)
 public class EnhanceMojo extends AbstractMojo {
 
-	private List<File> sourceSet = new ArrayList<File>();
-    private Enhancer enhancer;
+	private final List<File> sourceSet = new ArrayList<File>();
+    private volatile Enhancer enhancer;
+    private volatile EnhancementContext enhancementContext;
+    private final Set<String> persistenceTypes = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger alreadyEnhanced = new AtomicInteger();
+    private EnhancementManifest manifest;
+    private DiscoveryRecords discoveryRecords;
+    private TypeGraph typeGraph;
+    private final Set<String> changedTypes = ConcurrentHashMap.newKeySet();
+    private final Set<String> invalidatedTypes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> fieldOwners = new ConcurrentHashMap<String, Boolean>();
+    private EnhancementCache cache;
+    private DependencyStates dependencyStates;
+    private String archivesFingerprint;
+    private String classDirectoriesFingerprint;
+    private ClassBytesStore classBytes;
+    private ProjectClassFiles projectClassFiles;
+    private CompilerChangeFeed changeFeed;
+    private final List<File> archivesToEnhance = new ArrayList<File>();
+    private volatile Consumer<File> sourceSetListener;
+    private ForkJoinPool scanPool;
+    private ClassFileWriter writer;
 
     @Parameter
     private FileSet[] fileSets;
 
+    @Parameter(
+        defaultValue = "false",
+        property = "hibernate.enhance.skip")
+    private boolean skip;
+
     @Parameter(
 			defaultValue = "${project.build.directory}/classes", 
 			readonly = true, 
@@ -77,13 +140,117 @@ public class EnhanceMojo extends AbstractMojo {
         required = true)
     private boolean enableExtendedEnhancement;
 
+    @Parameter(
+        defaultValue = "false",
+        property = "hibernate.enhance.incremental")
+    private boolean incremental;
+
+    @Parameter(
+        defaultValue = "${project.build.directory}/hibernate-enhance",
+        readonly = true,
+        required = true)
+    private File stateDirectory;
+
+    @Parameter(
+        defaultValue = "${plugin.version}",
+        readonly = true)
+    private String pluginVersion;
+
+    @Parameter(property = "hibernate.enhance.cacheDirectory")
+    private File cacheDirectory;
+
+    @Parameter(
+        defaultValue = "268435456",
+        property = "hibernate.enhance.cacheMaxSize")
+    private long cacheMaxSize;
+
+    @Parameter(property = "hibernate.enhance.threads")
+    private int threads;
+
+    /**
+     * The amount of spare workers the pool may start to keep the processors
+     * busy while other workers wait for the file system to read or write a
+     * class file. This pays off on slow or network file systems, but on a
+     * local disk the pool costs more than it saves: a single threaded build
+     * ran at 0.85 times its speed with 16 spare workers. Off by default.
+     */
+    @Parameter(
+        defaultValue = "0",
+        property = "hibernate.enhance.ioThreads")
+    private int ioThreads;
+
+    /**
+     * The amount of threads that write the enhanced class files, so that the
+     * writes of the classes enhanced first overlap with the enhancement of the
+     * next ones. With 0 every class file is written by the worker that enhanced
+     * it.
+     */
+    @Parameter(
+        defaultValue = "1",
+        property = "hibernate.enhance.writeThreads")
+    private int writeThreads;
+
+    @Parameter(
+        defaultValue = "67108864",
+        property = "hibernate.enhance.maxBytesInMemory")
+    private long maxBytesInMemory;
+
+    @Parameter(
+        defaultValue = "false",
+        property = "hibernate.enhance.useCompilerChangeFeed")
+    private boolean useCompilerChangeFeed;
+
+    @Parameter(
+        defaultValue = "${project.build.directory}/maven-status/maven-compiler-plugin/compile/default-compile/createdFiles.lst",
+        property = "hibernate.enhance.createdFilesList")
+    private File createdFilesList;
+
+    @Parameter(property = "hibernate.enhance.archives")
+    private File[] archives;
+
+    /**
+     * When set, the class files of the source set are written to this folder
+     * instead of being rewritten in place. Classes that need no enhancement are
+     * hard linked, or copied where links are not supported.
+     */
+    @Parameter(property = "hibernate.enhance.outputDirectory")
+    private File outputDirectory;
+
+    @Parameter(
+        defaultValue = "${project.compileClasspathElements}",
+        readonly = true)
+    private List<String> classpathElements;
+
     public void execute() {
         getLog().debug(STARTING_EXECUTION_OF_ENHANCE_MOJO);
+        if (skip) {
+            getLog().info(SKIPPING_EXECUTION_OF_ENHANCE_MOJO);
+            return;
+        }
         processParameters();
-        assembleSourceSet();
-        createEnhancer();
-        discoverTypes();
-        performEnhancement();
+        loadManifest();
+        loadDiscoveryRecords();
+        loadTypeGraph();
+        createCache();
+        createClassBytesStore();
+        createProjectClassFiles();
+        try {
+            assembleSourceSetAndDiscoverTypes();
+            discoverArchiveTypes();
+            invalidateDependentTypes();
+            performEnhancement();
+            enhanceArchives();
+        } finally {
+            logSavedContextLookups();
+            closeProjectClassFiles();
+            closeClassLoader();
+            closeClassBytesStore();
+        }
+        storeManifest();
+        storeDiscoveryRecords();
+        storeTypeGraph();
+        markChangeFeedConsumed();
+        evictCache();
         getLog().debug(ENDING_EXECUTION_OF_ENHANCE_MOJO);
     }
 
@@ -94,6 +261,9 @@ public class EnhanceMojo extends AbstractMojo {
 		if (!enableDirtyTracking) {
 			getLog().warn(ENABLE_DIRTY_TRACKING_DEPRECATED);
 		}
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
         if (fileSets == null) {
             fileSets = new FileSet[1];
             fileSets[0] = new FileSet();
@@ -104,31 +274,295 @@ public class EnhanceMojo extends AbstractMojo {
 
     private void assembleSourceSet() {
         getLog().debug(STARTING_ASSEMBLY_OF_SOURCESET);
+        List<File> createdClassFiles = readChangeFeed();
         for (FileSet fileSet : fileSets) {
-            addFileSetToSourceSet(fileSet);
+            if (createdClassFiles != null) {
+                addCreatedFilesToSourceSet(fileSet, createdClassFiles);
+            } else {
+                addFileSetToSourceSet(fileSet);
+            }
         }
         getLog().debug(ENDING_ASSEMBLY_OF_SOURCESET);
     }
 
-   private void addFileSetToSourceSet(FileSet fileSet) {
+    /**
+     * Returns the class files the compiler created in this build, or null if
+     * the whole file sets have to be scanned.
+     */
+    private List<File> readChangeFeed() {
+        if (!useCompilerChangeFeed) {
+            return null;
+        }
+        changeFeed = new CompilerChangeFeed(createdFilesList, classesDirectory, stateDirectory, createFingerprint());
+        try {
+            List<File> createdClassFiles = changeFeed.read();
+            if (createdClassFiles == null) {
+                getLog().info(COMPILER_CHANGE_FEED_NOT_USABLE.formatted(createdFilesList));
+            } else {
+                getLog().info(USING_COMPILER_CHANGE_FEED.formatted(createdClassFiles.size(), createdFilesList));
+            }
+            return createdClassFiles;
+        } catch (IOException e) {
+            getLog().warn(UNABLE_TO_READ_COMPILER_CHANGE_FEED.formatted(createdFilesList), e);
+            return null;
+        }
+    }
+
+    private void markChangeFeedConsumed() {
+        if (changeFeed != null) {
+            try {
+                changeFeed.markConsumed();
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_MARK_COMPILER_CHANGE_FEED_CONSUMED.formatted(createdFilesList), e);
+            }
+        }
+    }
+
+    private void addCreatedFilesToSourceSet(FileSet fileSet, List<File> createdClassFiles) {
         getLog().debug(PROCESSING_FILE_SET);
+        File baseDir = getBaseDirectory(fileSet);
+        getLog().debug(USING_BASE_DIRECTORY.formatted(baseDir));
+        SourceSetScanner scanner = new SourceSetScanner(baseDir.toPath(), fileSet);
+        for (File createdClassFile : createdClassFiles) {
+            if (scanner.contains(createdClassFile.toPath())) {
+                addCandidateFile(createdClassFile.toPath());
+            }
+        }
+        getLog().debug(FILESET_PROCESSED_SUCCESFULLY);
+    }
+
+    private File getBaseDirectory(FileSet fileSet) {
         String directory = fileSet.getDirectory();
-        FileSetManager fileSetManager = new FileSetManager();
-        File baseDir = classesDirectory;
         if (directory != null && classesDirectory != null) {
-            baseDir = new File(directory);
-        } 
+            return new File(directory);
+        }
+        return classesDirectory;
+    }
+
+   private void addFileSetToSourceSet(FileSet fileSet) {
+        getLog().debug(PROCESSING_FILE_SET);
+        File baseDir = getBaseDirectory(fileSet);
         getLog().debug(USING_BASE_DIRECTORY.formatted(baseDir));
-        for (String fileName : fileSetManager.getIncludedFiles(fileSet)) {
-            File candidateFile = new File(baseDir, fileName); 
-            if (fileName.endsWith(".class")) {
-                sourceSet.add(candidateFile);
-                getLog().info(ADDED_FILE_TO_SOURCE_SET.formatted(candidateFile));
+        SourceSetScanner scanner = new SourceSetScanner(baseDir.toPath(), fileSet);
+        try {
+            if (scanPool != null) {
+                // the workers that discover types walk the directories as well
+                scanner.scan(this::addCandidateFile, scanPool);
             } else {
-                getLog().debug(SKIPPING_NON_CLASS_FILE.formatted(candidateFile));
+                scanner.scan(this::addCandidateFile);
+            }
+            getLog().debug(FILESET_PROCESSED_SUCCESFULLY);
+        } catch (IOException e) {
+            getLog().error(UNABLE_TO_SCAN_FILE_SET.formatted(baseDir), e);
+        }
+    }
+
+    private void addCandidateFile(Path candidatePath) {
+        File candidateFile = candidatePath.toFile();
+        if (candidateFile.getName().endsWith(".class")) {
+            synchronized (sourceSet) {
+                sourceSet.add(candidateFile);
+            }
+            getLog().info(ADDED_FILE_TO_SOURCE_SET.formatted(candidateFile));
+            Consumer<File> listener = sourceSetListener;
+            if (listener != null) {
+                listener.accept(candidateFile);
+            }
+        } else {
+            getLog().debug(SKIPPING_NON_CLASS_FILE.formatted(candidateFile));
+        }
+    }
+
+    private void loadManifest() {
+        if (incremental) {
+            getLog().debug(LOADING_ENHANCEMENT_MANIFEST.formatted(stateDirectory));
+            try {
+                manifest = EnhancementManifest.load(stateDirectory, createFingerprint());
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_LOAD_ENHANCEMENT_MANIFEST.formatted(stateDirectory), e);
+            }
+        }
+    }
+
+    private void loadDiscoveryRecords() {
+        if (incremental) {
+            try {
+                discoveryRecords = DiscoveryRecords.load(stateDirectory, createFingerprint());
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_LOAD_DISCOVERY_RECORDS.formatted(stateDirectory), e);
+            }
+        }
+    }
+
+    private void storeDiscoveryRecords() {
+        if (discoveryRecords != null) {
+            getLog().info(REPLAYED_DISCOVERY_SUMMARY.formatted(discoveryRecords.getReplayed()));
+            // classes this run did not scan keep the records they had
+            discoveryRecords.retainPrevious();
+            try {
+                discoveryRecords.store();
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_STORE_DISCOVERY_RECORDS.formatted(discoveryRecords.getFile()), e);
+            }
+        }
+    }
+
+    private void loadTypeGraph() {
+        if (incremental) {
+            try {
+                typeGraph = TypeGraph.load(stateDirectory, createFingerprint());
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_LOAD_TYPE_GRAPH.formatted(stateDirectory), e);
+            }
+        }
+    }
+
+    private void storeTypeGraph() {
+        if (typeGraph != null) {
+            try {
+                typeGraph.store();
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_STORE_TYPE_GRAPH.formatted(typeGraph.getFile()), e);
+            }
+        }
+    }
+
+    /**
+     * Identifies the state kept in the state directory, which is only valid
+     * for the output directory it was recorded for.
+     */
+    private String createFingerprint() {
+        return String.join(",", createCacheFingerprint(), String.valueOf(outputDirectory), getClassDirectoriesFingerprint());
+    }
+
+    /**
+     * Identifies the configuration the enhanced byte code depends on. Unlike
+     * the fingerprint of the state it leaves out the paths of this checkout,
+     * so that other checkouts and output directories share the cache entries.
+     */
+    private String createCacheFingerprint() {
+        return String.join(
+            ",", 
+            String.valueOf(pluginVersion),
+            Version.getVersionString(),
+            String.valueOf(enableAssociationManagement),
+            String.valueOf(enableDirtyTracking),
+            String.valueOf(enableLazyInitialization),
+            String.valueOf(enableExtendedEnhancement),
+            getArchivesFingerprint());
+    }
+
+    /**
+     * Identifies the JARs of the compile class path by name and content, which
+     * unlike their paths are the same in every checkout sharing the cache.
+     */
+    private String getArchivesFingerprint() {
+        if (archivesFingerprint == null) {
+            List<File> archives = new ArrayList<File>();
+            if (classpathElements != null) {
+                for (String classpathElement : classpathElements) {
+                    File file = new File(classpathElement);
+                    if (file.isFile()) {
+                        archives.add(file);
+                    }
+                }
+            }
+            try {
+                archivesFingerprint = ClasspathFingerprint.ofArchives(archives);
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_FINGERPRINT_CLASSPATH, e);
+                archivesFingerprint = UUID.randomUUID().toString();
+            }
+        }
+        return archivesFingerprint;
+    }
+
+    /**
+     * Identifies the state of the other class directories of the compile class
+     * path. The cache leaves them out, the {@link DependencyStates} of every
+     * class already cover the types it takes from them.
+     */
+    private String getClassDirectoriesFingerprint() {
+        if (classDirectoriesFingerprint == null) {
+            List<File> classDirectories = getClassDirectories();
+            try {
+                classDirectoriesFingerprint = ClasspathFingerprint.ofDirectories(
+                    classDirectories.subList(1, classDirectories.size()));
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_FINGERPRINT_CLASSPATH, e);
+                classDirectoriesFingerprint = UUID.randomUUID().toString();
+            }
+        }
+        return classDirectoriesFingerprint;
+    }
+
+    private void storeManifest() {
+        if (manifest != null) {
+            getLog().info(INCREMENTAL_ENHANCEMENT_SUMMARY.formatted(manifest.getHits(), manifest.getMisses()));
+            if (changeFeed != null) {
+                // the source set may hold only part of the classes, keep what is known about the others
+                manifest.retainPrevious();
+            }
+            try {
+                manifest.store();
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_STORE_ENHANCEMENT_MANIFEST.formatted(manifest.getFile()), e);
+            }
+        }
+    }
+
+    private void createClassBytesStore() {
+        classBytes = new ClassBytesStore(maxBytesInMemory, stateDirectory);
+    }
+
+    private void closeClassBytesStore() {
+        if (classBytes.hasSpilled()) {
+            getLog().debug(CLASS_BYTES_SPILLED_TO_DISK.formatted(maxBytesInMemory));
+        }
+        try {
+            classBytes.close();
+        } catch (IOException e) {
+            getLog().warn(UNABLE_TO_CLOSE_CLASS_BYTES_STORE, e);
+        }
+        classBytes = null;
+    }
+
+    private void createCache() {
+        if (cacheDirectory != null) {
+            getLog().debug(USING_ENHANCEMENT_CACHE.formatted(cacheDirectory));
+            cache = new EnhancementCache(cacheDirectory, createCacheFingerprint(), cacheMaxSize);
+            dependencyStates = new DependencyStates(getClassDirectories());
+        }
+    }
+
+    /**
+     * Returns the classes directory followed by the other class directories of
+     * the compile class path.
+     */
+    private List<File> getClassDirectories() {
+        List<File> result = new ArrayList<File>();
+        result.add(classesDirectory);
+        if (classpathElements != null) {
+            for (String classpathElement : classpathElements) {
+                File file = new File(classpathElement);
+                if (file.isDirectory() && !file.getAbsoluteFile().equals(classesDirectory.getAbsoluteFile())) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void evictCache() {
+        if (cache != null) {
+            getLog().info(ENHANCEMENT_CACHE_SUMMARY.formatted(cache.getHits(), cache.getMisses()));
+            try {
+                int evicted = cache.evict();
+                getLog().debug(EVICTED_ENTRIES_FROM_ENHANCEMENT_CACHE.formatted(evicted, cache.getDirectory()));
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_EVICT_ENHANCEMENT_CACHE.formatted(cache.getDirectory()), e);
             }
         }
-        getLog().debug(FILESET_PROCESSED_SUCCESFULLY);
     }
 
     private ClassLoader createClassLoader() {
@@ -139,11 +573,64 @@ public class EnhanceMojo extends AbstractMojo {
         } catch (MalformedURLException e) {
             getLog().error(UNEXPECTED_ERROR_WHILE_CONSTRUCTING_CLASSLOADER, e);
         }
-		return new URLClassLoader(
+        if (archives != null) {
+            for (File archive : archives) {
+                try {
+                    urls.add(archive.toURI().toURL());
+                } catch (MalformedURLException e) {
+                    getLog().error(UNEXPECTED_ERROR_WHILE_CONSTRUCTING_CLASSLOADER, e);
+                }
+            }
+        }
+        if (classpathElements != null) {
+            for (String classpathElement : classpathElements) {
+                File file = new File(classpathElement);
+                if (file.exists() && !file.getAbsoluteFile().equals(classesDirectory.getAbsoluteFile())) {
+                    try {
+                        urls.add(file.toURI().toURL());
+                    } catch (MalformedURLException e) {
+                        getLog().error(UNEXPECTED_ERROR_WHILE_CONSTRUCTING_CLASSLOADER, e);
+                    }
+                }
+            }
+        }
+		return new ProjectClassLoader(
             urls.toArray(new URL[urls.size()]), 
             Enhancer.class.getClassLoader());
 	}
 
+    private void logSavedContextLookups() {
+        EnhancementContext context = enhancementContext;
+        if (context != null) {
+            getLog().debug(SAVED_ENHANCEMENT_CONTEXT_LOOKUPS.formatted(context.getSavedLookups()));
+        }
+    }
+
+    private void createProjectClassFiles() {
+        projectClassFiles = new ProjectClassFiles(classBytes, classesDirectory);
+    }
+
+    private void closeProjectClassFiles() {
+        if (projectClassFiles != null) {
+            getLog().debug(PROJECT_CLASS_FILES_SUMMARY.formatted(projectClassFiles.getHits()));
+            projectClassFiles.close();
+            projectClassFiles = null;
+        }
+    }
+
+    private void closeClassLoader() {
+        EnhancementContext context = enhancementContext;
+        if (context != null && context.getLoadingClassLoader() instanceof ProjectClassLoader) {
+            ProjectClassLoader classLoader = (ProjectClassLoader)context.getLoadingClassLoader();
+            getLog().debug(CLOSING_CLASSLOADER.formatted(classLoader.getSavedLookups()));
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_CLOSE_CLASSLOADER, e);
+            }
+        }
+    }
+
     private EnhancementContext createEnhancementContext() {
         getLog().debug(CREATE_ENHANCEMENT_CONTEXT) ;
         return new EnhancementContext(
@@ -156,33 +643,298 @@ public class EnhanceMojo extends AbstractMojo {
 
     private void createEnhancer() {
         getLog().debug(CREATE_BYTECODE_ENHANCER) ;
-        enhancer = BytecodeProviderInitiator
-            .buildDefaultBytecodeProvider()
-            .getEnhancer(createEnhancementContext());
+        EnhancementContext context = getEnhancementContext();
+        File indexDirectory = null;
+        if (cacheDirectory != null || stateDirectory != null) {
+            indexDirectory = new File(cacheDirectory != null ? cacheDirectory : stateDirectory, EnhancementCache.CLASSPATH_INDEX_DIRECTORY);
+            getLog().debug(USING_CLASSPATH_INDEX_DIRECTORY.formatted(indexDirectory));
+        }
+        enhancer = EnhancerFactory.getInstance().createEnhancer(
+            context,
+            getClasspathJars(context),
+            indexDirectory,
+            projectClassFiles);
+    }
+
+    /**
+     * Returns the JARs the enhancement context loads classes from, except the
+     * archives being enhanced, as those change with every build.
+     */
+    private List<File> getClasspathJars(EnhancementContext context) {
+        List<File> result = new ArrayList<File>();
+        if (context.getLoadingClassLoader() instanceof URLClassLoader) {
+            Set<File> enhancedArchives = new HashSet<File>();
+            if (archives != null) {
+                for (File archive : archives) {
+                    enhancedArchives.add(archive.getAbsoluteFile());
+                }
+            }
+            for (URL url : ((URLClassLoader)context.getLoadingClassLoader()).getURLs()) {
+                try {
+                    File file = new File(url.toURI());
+                    if (file.isFile() && !enhancedArchives.contains(file)) {
+                        result.add(file);
+                    }
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // not a local file, left to the class loader
+                }
+            }
+        }
+        return result;
+    }
+
+    private EnhancementContext getEnhancementContext() {
+        EnhancementContext result = enhancementContext;
+        if (result == null) {
+            synchronized (this) {
+                if (enhancementContext == null) {
+                    enhancementContext = createEnhancementContext();
+                }
+                result = enhancementContext;
+            }
+        }
+        return result;
     }
 
-    private void discoverTypes() {
+    /**
+     * Creates the enhancer when the first class needs it, so that modules
+     * without persistence types never bootstrap the bytecode provider.
+     */
+    private Enhancer getEnhancer() {
+        Enhancer result = enhancer;
+        if (result == null) {
+            synchronized (this) {
+                if (enhancer == null) {
+                    createEnhancer();
+                }
+                result = enhancer;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Streams every class file into type discovery as soon as the assembly of
+     * the source set finds it, rather than waiting for the whole source set.
+     * At most {@link #DISCOVERY_QUEUE_CAPACITY} class files wait for discovery;
+     * beyond that the thread that found a class file discovers its types
+     * itself, which holds the assembly back to the pace of discovery.
+     * Discovery is the one barrier of the pipeline: this returns only when all
+     * class files are processed, so enhancement sees every discovered type.
+     */
+    private void assembleSourceSetAndDiscoverTypes() {
         getLog().debug(STARTING_TYPE_DISCOVERY) ;
-        for (File classFile : sourceSet) {
-            discoverTypesForClass(classFile);
+        if (threads > 1 || ioThreads > 0) {
+            ForkJoinPool pool = createClassFilePool();
+            Semaphore queued = new Semaphore(DISCOVERY_QUEUE_CAPACITY);
+            AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+            try {
+                sourceSetListener = classFile -> {
+                    if (!queued.tryAcquire()) {
+                        discoverTypesForClass(classFile);
+                        return;
+                    }
+                    pool.execute(() -> {
+                        try {
+                            discoverTypesForClass(classFile);
+                        } catch (RuntimeException e) {
+                            if (!failure.compareAndSet(null, e)) {
+                                failure.get().addSuppressed(e);
+                            }
+                        } finally {
+                            queued.release();
+                        }
+                    });
+                };
+                scanPool = pool;
+                assembleSourceSet();
+                sourceSetListener = null;
+                // every permit is back once the last queued class file is discovered
+                queued.acquireUninterruptibly(DISCOVERY_QUEUE_CAPACITY);
+            } finally {
+                sourceSetListener = null;
+                scanPool = null;
+                pool.shutdown();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        } else {
+            sourceSetListener = this::discoverTypesForClass;
+            try {
+                assembleSourceSet();
+            } finally {
+                sourceSetListener = null;
+            }
         }
+        replayDiscoveryOutsideSourceSet();
         getLog().debug(ENDING_TYPE_DISCOVERY) ;
     }
 
     private void discoverTypesForClass(File classFile) {
         getLog().debug(TRYING_TO_DISCOVER_TYPES_FOR_CLASS_FILE.formatted(classFile));
         try {
-            enhancer.discoverTypes(
-                determineClassName(classFile), 
-                Files.readAllBytes( classFile.toPath()));
+            byte[] bytes = blockingIo(() -> Files.readAllBytes(classFile.toPath()));
+            if (classBytes != null) {
+                classBytes.put(classFile, bytes);
+            }
+            if (dependencyStates != null && isInClassesDirectory(classFile)) {
+                dependencyStates.register(toClassName(classFile), bytes);
+            }
+            if (discoveryRecords != null && isInClassesDirectory(classFile)) {
+                discoveryRecords.scanned(toClassName(classFile));
+            }
+            if (typeGraph != null && manifest != null && isInClassesDirectory(classFile)) {
+                recordChange(toClassName(classFile), bytes);
+            }
+            if (!ClassFileInspector.isPersistenceType(bytes)) {
+                getLog().debug(SKIPPING_TYPE_DISCOVERY_FOR_CLASS_FILE.formatted(classFile));
+                return;
+            }
+            String className = determineClassName(classFile);
+            recordTypeDependencies(className, bytes);
+            Map<String, PersistenceType> replayedTypes = discoveryRecords != null
+                ? discoveryRecords.replay(className, bytes)
+                : null;
+            if (replayedTypes != null) {
+                replayDiscoveredTypes(replayedTypes);
+                persistenceTypes.add(className);
+                getLog().debug(REPLAYED_DISCOVERED_TYPES_FOR_CLASS_FILE.formatted(classFile));
+                return;
+            }
+            if (ClassFileInspector.isEnhanced(bytes)) {
+                getLog().debug(SKIPPING_TYPE_DISCOVERY_FOR_ENHANCED_CLASS_FILE.formatted(classFile));
+                return;
+            }
+            if (discoveryRecords != null) {
+                discoveryRecords.discovered(className, getEnhancementContext().recordDiscoveredTypes(
+                    () -> getEnhancer().discoverTypes(className, bytes)));
+            } else {
+                getEnhancer().discoverTypes(className, bytes);
+            }
+            persistenceTypes.add(className);
             getLog().info(SUCCESFULLY_DISCOVERED_TYPES_FOR_CLASS_FILE.formatted(classFile));
         } catch (IOException e) {
             getLog().error(UNABLE_TO_DISCOVER_TYPES_FOR_CLASS_FILE.formatted(classFile), e);
         }
     }
 
+    private void recordTypeDependencies(String className, byte[] bytes) {
+        if (typeGraph == null) {
+            return;
+        }
+        Set<String> dependencies = ClassFileInspector.referencedTypes(bytes);
+        if (dependencies != null) {
+            typeGraph.record(className, dependencies);
+        }
+    }
+
+    /**
+     * Remembers a class that changed since the previous build. Any class is
+     * looked at, not only persistence types, as a mapped superclass that loses
+     * its annotation changes the enhancement of its subclasses as well.
+     */
+    private void recordChange(String className, byte[] bytes) {
+        if (!manifest.isUnchanged(className, bytes)) {
+            changedTypes.add(className);
+        }
+    }
+
+    /**
+     * Makes sure that the classes extending, embedding or referring to a
+     * class that changed in this build are not trusted to the manifest. Those
+     * that are not part of the source set, such as when it was taken from the
+     * compiler change feed, are added to it and go through type discovery
+     * first. Those already enhanced in place are enhanced again from their
+     * original byte code, as far as the enhancement cache knows it.
+     */
+    private void invalidateDependentTypes() {
+        if (typeGraph == null || changedTypes.isEmpty()) {
+            return;
+        }
+        Set<String> dependents = typeGraph.dependentsOf(changedTypes);
+        dependents.removeAll(changedTypes);
+        if (dependents.isEmpty()) {
+            return;
+        }
+        getLog().info(INVALIDATED_DEPENDENT_TYPES.formatted(dependents.size(), changedTypes.size()));
+        invalidatedTypes.addAll(dependents);
+        Set<File> sourceSetFiles = new HashSet<File>();
+        for (File classFile : sourceSet) {
+            sourceSetFiles.add(classFile.getAbsoluteFile());
+        }
+        List<File> addedFiles = new ArrayList<File>();
+        for (String className : dependents) {
+            File classFile = getClassFile(className);
+            getLog().debug(INVALIDATED_DEPENDENT_TYPE.formatted(className));
+            if (!sourceSetFiles.contains(classFile) && classFile.isFile()) {
+                addedFiles.add(classFile);
+            }
+        }
+        addedFiles.forEach(this::discoverTypesForClass);
+        sourceSet.addAll(addedFiles);
+    }
+
+    private File getClassFile(String className) {
+        return new File(classesDirectory, className.replace('.', File.separatorChar) + ".class").getAbsoluteFile();
+    }
+
+    private void replayDiscoveredTypes(Map<String, PersistenceType> types) {
+        EnhancementContext context = getEnhancementContext();
+        types.forEach(context::replayDiscoveredType);
+    }
+
+    /**
+     * Replays the recorded types of classes that are not part of the source set,
+     * such as the classes the compiler did not touch when the source set comes
+     * from its change feed, as long as their class files are unchanged. A class
+     * file that changed nonetheless is added to the source set and discovered.
+     */
+    private void replayDiscoveryOutsideSourceSet() {
+        if (discoveryRecords == null) {
+            return;
+        }
+        Set<File> sourceSetFiles = new HashSet<File>();
+        for (File classFile : sourceSet) {
+            sourceSetFiles.add(classFile.getAbsoluteFile());
+        }
+        List<File> changedClassFiles = new ArrayList<File>();
+        for (String className : discoveryRecords.getPreviousTypes().keySet()) {
+            File classFile = getClassFile(className);
+            if (sourceSetFiles.contains(classFile) || !classFile.isFile()) {
+                continue;
+            }
+            try {
+                Map<String, PersistenceType> replayedTypes = discoveryRecords.replay(
+                    className,
+                    Files.readAllBytes(classFile.toPath()));
+                if (replayedTypes != null) {
+                    replayDiscoveredTypes(replayedTypes);
+                    persistenceTypes.add(className);
+                } else {
+                    changedClassFiles.add(classFile);
+                }
+            } catch (IOException e) {
+                getLog().error(UNABLE_TO_DISCOVER_TYPES_FOR_CLASS_FILE.formatted(classFile), e);
+            }
+        }
+        for (File classFile : changedClassFiles) {
+            getLog().info(DISCOVERING_CLASS_CHANGED_OUTSIDE_SOURCE_SET.formatted(classFile));
+            sourceSet.add(classFile);
+            discoverTypesForClass(classFile);
+        }
+    }
+
     private String determineClassName(File classFile) {
         getLog().debug(DETERMINE_CLASS_NAME_FOR_FILE.formatted(classFile));
+        return toClassName(classFile);
+    }
+
+    private boolean isInClassesDirectory(File classFile) {
+        return classFile.getAbsolutePath().startsWith(classesDirectory.getAbsolutePath() + File.separator);
+    }
+
+    private String toClassName(File classFile) {
         String classFilePath = classFile.getAbsolutePath();
         String classesDirectoryPath = classesDirectory.getAbsolutePath();
         return classFilePath.substring(
@@ -191,97 +943,701 @@ public class EnhanceMojo extends AbstractMojo {
             .replace(File.separatorChar, '.');
     }
 
+    private void discoverArchiveTypes() {
+        if (archives == null) {
+            return;
+        }
+        for (File archive : archives) {
+            discoverTypesInArchive(archive);
+        }
+    }
+
+    /**
+     * Streams the entries of the archive once to discover the persistence types
+     * it holds. Only archives with classes left to enhance are rewritten later on.
+     * Signed archives are left alone, enhancing them would break their signature.
+     */
+    private void discoverTypesInArchive(File archive) {
+        getLog().debug(TRYING_TO_DISCOVER_TYPES_IN_ARCHIVE.formatted(archive));
+        boolean needsEnhancement = enableExtendedEnhancement;
+        try {
+            if (isSigned(archive)) {
+                getLog().warn(SKIPPING_SIGNED_ARCHIVE.formatted(archive));
+                return;
+            }
+        } catch (IOException e) {
+            getLog().error(UNABLE_TO_DISCOVER_TYPES_IN_ARCHIVE.formatted(archive), e);
+            return;
+        }
+        try (ZipInputStream in = openArchive(archive)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String className = determineClassName(entry);
+                if (className == null) {
+                    continue;
+                }
+                byte[] bytes = in.readAllBytes();
+                if (!ClassFileInspector.isPersistenceType(bytes) || ClassFileInspector.isEnhanced(bytes)) {
+                    continue;
+                }
+                getEnhancer().discoverTypes(className, bytes);
+                persistenceTypes.add(className);
+                needsEnhancement = true;
+            }
+        } catch (IOException e) {
+            getLog().error(UNABLE_TO_DISCOVER_TYPES_IN_ARCHIVE.formatted(archive), e);
+            return;
+        }
+        if (!needsEnhancement) {
+            getLog().info(SKIPPING_ARCHIVE.formatted(archive));
+            return;
+        }
+        archivesToEnhance.add(archive);
+    }
+
+    private void enhanceArchives() {
+        for (File archive : archivesToEnhance) {
+            enhanceArchive(archive);
+        }
+    }
+
+    /**
+     * Rewrites the archive into a sibling temporary archive that replaces it at
+     * the end. Class entries are enhanced in memory, all other entries are
+     * copied with their compressed bytes as they are. Zip64 archives are
+     * streamed entry by entry instead.
+     */
+    private void enhanceArchive(File archive) {
+        getLog().debug(TRYING_TO_ENHANCE_ARCHIVE.formatted(archive));
+        Path target = archive.toPath();
+        Path tempFile = target.resolveSibling(archive.getName() + TEMP_FILE_SUFFIX);
+        int enhancedEntries;
+        try {
+            try (ArchiveRewriter rewriter = ArchiveRewriter.open(archive)) {
+                if (rewriter != null) {
+                    enhancedEntries = rewriter.rewrite(
+                        tempFile,
+                        name -> determineClassName(name) != null,
+                        (name, bytes) -> enhanceArchiveEntry(determineClassName(name), bytes, archive));
+                } else {
+                    enhancedEntries = streamArchive(archive, tempFile);
+                }
+            }
+            if (enhancedEntries == 0) {
+                Files.delete(tempFile);
+                getLog().info(SKIPPING_ARCHIVE.formatted(archive));
+                return;
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            getLog().info(SUCCESFULLY_ENHANCED_ARCHIVE.formatted(enhancedEntries, archive));
+        } catch (IOException e) {
+            getLog().error(ERROR_WHILE_ENHANCING_ARCHIVE.formatted(archive), e);
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+        }
+    }
+
+    /**
+     * Streams the archive entry by entry into the target archive. Entries other
+     * than classes are copied through a fixed buffer with their compression
+     * method, and stored entries keep their size and CRC.
+     */
+    private int streamArchive(File archive, Path target) throws IOException {
+        int enhancedEntries = 0;
+        try (ZipInputStream in = openArchive(archive);
+                ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String className = determineClassName(entry);
+                if (className == null) {
+                    out.putNextEntry(copyEntry(entry, null));
+                    in.transferTo(out);
+                } else {
+                    byte[] originalBytes = in.readAllBytes();
+                    byte[] newBytes = enhanceArchiveEntry(className, originalBytes, archive);
+                    if (newBytes != null) {
+                        enhancedEntries++;
+                    } else {
+                        newBytes = originalBytes;
+                    }
+                    out.putNextEntry(copyEntry(entry, newBytes));
+                    out.write(newBytes);
+                }
+                out.closeEntry();
+            }
+        }
+        return enhancedEntries;
+    }
+
+    private byte[] enhanceArchiveEntry(String className, byte[] originalBytes, File archive) {
+        if (ClassFileInspector.isEnhanced(originalBytes) || !mayNeedEnhancement(className, originalBytes)) {
+            return null;
+        }
+        try {
+            byte[] newBytes = getEnhancer().enhance(className, originalBytes);
+            if (newBytes == null || Arrays.equals(newBytes, originalBytes)) {
+                return null;
+            }
+            getLog().debug(SUCCESFULLY_ENHANCED_ARCHIVE_ENTRY.formatted(className, archive));
+            return newBytes;
+        } catch (EnhancementException e) {
+            getLog().error(ERROR_WHILE_ENHANCING_ARCHIVE_ENTRY.formatted(className, archive), e);
+            return null;
+        }
+    }
+
+    private static ZipInputStream openArchive(File archive) throws IOException {
+        return new ZipInputStream(new BufferedInputStream(Files.newInputStream(archive.toPath())));
+    }
+
+    /**
+     * Copies the entry for the output archive. Stored entries need their size
+     * and CRC up front, deflated entries get them computed while being written.
+     */
+    private static ZipEntry copyEntry(ZipEntry entry, byte[] bytes) {
+        ZipEntry copy = new ZipEntry(entry);
+        if (copy.getMethod() == ZipEntry.STORED) {
+            if (bytes != null) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                copy.setSize(bytes.length);
+                copy.setCompressedSize(bytes.length);
+                copy.setCrc(crc.getValue());
+            }
+        } else {
+            copy.setCompressedSize(-1);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the name of the class held by the archive entry, or null if the
+     * entry is to be copied as it is.
+     */
+    static String determineClassName(ZipEntry entry) {
+        return determineClassName(entry.getName());
+    }
+
+    private static String determineClassName(String entryName) {
+        String name = entryName;
+        if (name.startsWith(WAR_CLASSES_PREFIX)) {
+            name = name.substring(WAR_CLASSES_PREFIX.length());
+        }
+        if (entryName.endsWith("/")
+                || !name.endsWith(".class")
+                || name.startsWith("META-INF/")
+                || name.startsWith("WEB-INF/")
+                || name.endsWith("module-info.class")
+                || name.endsWith("package-info.class")) {
+            return null;
+        }
+        return name.substring(0, name.length() - ".class".length()).replace('/', '.');
+    }
+
+    private static boolean isSigned(File archive) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            return zipFile.stream().anyMatch(EnhanceMojo::isSignatureEntry);
+        }
+    }
+
+    private static boolean isSignatureEntry(ZipEntry entry) {
+        String name = entry.getName().toUpperCase();
+        return name.startsWith("META-INF/")
+            && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"));
+    }
+
      private void performEnhancement() {
         getLog().debug(STARTING_CLASS_ENHANCEMENT) ;
-        for (File classFile : sourceSet) {
-            long lastModified = classFile.lastModified();
-            enhanceClass(classFile);
-            final boolean timestampReset = classFile.setLastModified( lastModified );
-            if ( !timestampReset ) {
-                getLog().debug(SETTING_LASTMODIFIED_FAILED_FOR_CLASS_FILE.formatted(classFile));
+        if (writeThreads > 0) {
+            // writes of the classes enhanced first overlap with the enhancement of the next ones
+            writer = new ClassFileWriter(writeThreads, WRITE_QUEUE_CAPACITY);
+            try {
+                forEachClassFile(this::enhanceClass);
+            } finally {
+                writer.close();
+                writer = null;
             }
+        } else {
+            forEachClassFile(this::enhanceClass);
+        }
+        if (alreadyEnhanced.get() > 0) {
+            getLog().info(ALREADY_ENHANCED_SUMMARY.formatted(alreadyEnhanced.get()));
         }
         getLog().debug(ENDING_CLASS_ENHANCEMENT) ;
      }
 
+    /**
+     * Writes the enhanced byte code with the timestamp of the original class
+     * file, on the write stage when there is one.
+     */
+    private void writeClassFile(byte[] bytes, File targetFile, long lastModified) {
+        Runnable write = () -> {
+            writeByteCodeToFile(bytes, targetFile);
+            final boolean timestampReset = targetFile.setLastModified( lastModified );
+            if ( !timestampReset ) {
+                getLog().debug(SETTING_LASTMODIFIED_FAILED_FOR_CLASS_FILE.formatted(targetFile));
+            }
+        };
+        if (writer != null) {
+            writer.submit(write);
+        } else {
+            write.run();
+        }
+    }
+
+    /**
+     * Returns the file the enhanced byte code of the class file goes to, which
+     * is the class file itself unless an output directory is configured.
+     */
+    private File getTargetFile(File classFile) {
+        if (outputDirectory == null) {
+            return classFile;
+        }
+        Path relativePath = classesDirectory.getAbsoluteFile().toPath().relativize(classFile.getAbsoluteFile().toPath());
+        return outputDirectory.toPath().resolve(relativePath).toFile();
+    }
+
+    /**
+     * Makes a class file that needs no enhancement available in the output
+     * directory. A hard link shares the bytes with the class file, a copy is
+     * only made when the file system cannot link them.
+     */
+    private void passThrough(File classFile) throws IOException {
+        if (outputDirectory == null) {
+            return;
+        }
+        Path source = classFile.toPath();
+        Path target = getTargetFile(classFile).toPath();
+        String message = blockingIo(() -> {
+            if (Files.exists(target) && Files.isSameFile(source, target)) {
+                return null;
+            }
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, source);
+                return LINKED_CLASS_FILE;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                return COPIED_CLASS_FILE;
+            }
+        });
+        if (message != null) {
+            getLog().debug(message.formatted(classFile));
+        }
+    }
+
+    /**
+     * Applies the action to every file of the source set, spreading the work over
+     * a work stealing pool of 'threads' workers. The enhancer is shared by the
+     * workers: its type pool and the discovered types in the enhancement context
+     * are kept in concurrent maps, and each class is only ever handled by one worker.
+     */
+    private void forEachClassFile(Consumer<File> action) {
+        if ((threads > 1 || ioThreads > 0) && sourceSet.size() > 1) {
+            ForkJoinPool pool = createClassFilePool();
+            try {
+                pool.invoke(new ClassFileAction(sourceSet, 0, sourceSet.size(), action));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            sourceSet.forEach(action);
+        }
+    }
+
+    /**
+     * Creates a pool of 'threads' workers that may grow by 'ioThreads' spare
+     * workers while workers are blocked in {@link #blockingIo(IoOperation)}.
+     * Once all spare workers are started, blocked workers simply wait.
+     */
+    private ForkJoinPool createClassFilePool() {
+        return new ForkJoinPool(
+            threads,
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null,
+            false,
+            0,
+            threads + Math.max(ioThreads, 0),
+            1,
+            pool -> true,
+            60,
+            TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs a file system operation. On a worker of a pool the operation runs as
+     * a managed blocker, so that the pool can start a spare worker for the
+     * classes waiting in line and many reads and writes are in flight at once.
+     */
+    private static <T> T blockingIo(IoOperation<T> operation) throws IOException {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            return operation.run();
+        }
+        IoBlocker<T> blocker = new IoBlocker<T>(operation);
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return blocker.getResult();
+    }
+
     private void enhanceClass(File classFile) {
         getLog().debug(TRYING_TO_ENHANCE_CLASS_FILE.formatted(classFile));
         try {
-            byte[] newBytes = enhancer.enhance(
-                determineClassName(classFile), 
-                Files.readAllBytes(classFile.toPath()));
-            if (newBytes != null) {
-                writeByteCodeToFile(newBytes, classFile);
-                getLog().info(SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(classFile));
-            } else {
+            long lastModified = classFile.lastModified();
+            String className = determineClassName(classFile);
+            byte[] originalBytes = readClassFile(classFile);
+            if (manifest != null
+                    && !invalidatedTypes.contains(className)
+                    && (outputDirectory == null || getTargetFile(classFile).isFile())
+                    && manifest.isUpToDate(className, originalBytes)) {
+                getLog().debug(CLASS_FILE_UP_TO_DATE.formatted(classFile));
+                completeDiscoveryRecord(className, originalBytes);
+                return;
+            }
+            byte[] unenhancedBytes = null;
+            if (ClassFileInspector.isEnhanced(originalBytes)) {
+                unenhancedBytes = findUnenhancedBytes(className, originalBytes, classFile);
+                if (unenhancedBytes == null) {
+                    alreadyEnhanced.incrementAndGet();
+                    getLog().info(SKIPPING_ALREADY_ENHANCED_FILE.formatted(classFile));
+                    passThrough(classFile);
+                    if (manifest != null) {
+                        manifest.record(className, originalBytes);
+                    }
+                    completeDiscoveryRecord(className, originalBytes);
+                    return;
+                }
+                originalBytes = unenhancedBytes;
+            }
+            byte[] newBytes = mayNeedEnhancement(className, originalBytes)
+                ? enhance(className, originalBytes, classFile)
+                : null;
+            if (newBytes == null) {
                 getLog().info(SKIPPING_FILE.formatted(classFile));
+            } else if (Arrays.equals(newBytes, originalBytes)) {
+                getLog().info(SKIPPING_UNCHANGED_FILE.formatted(classFile));
+            }
+            boolean enhanced = newBytes != null && !Arrays.equals(newBytes, originalBytes);
+            if (enhanced || unenhancedBytes != null) {
+                // a class file enhanced before is rewritten even if it no longer needs enhancement
+                File targetFile = getTargetFile(classFile);
+                if (outputDirectory != null) {
+                    Files.createDirectories(targetFile.toPath().getParent());
+                }
+                writeClassFile(enhanced ? newBytes : originalBytes, targetFile, lastModified);
+            } else {
+                passThrough(classFile);
             }
+            if (enhanced) {
+                getLog().info(SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(classFile));
+                rememberUnenhancedBytes(newBytes, originalBytes, classFile);
+            }
+            // with an output directory the class file itself is left untouched
+            byte[] bytesOnDisk = newBytes != null && outputDirectory == null ? newBytes : originalBytes;
+            if (manifest != null) {
+                manifest.record(className, bytesOnDisk);
+            }
+            completeDiscoveryRecord(className, bytesOnDisk);
         } catch (EnhancementException | IOException e) {
             getLog().error(ERROR_WHILE_ENHANCING_CLASS_FILE.formatted(classFile), e);;
-         }
+        }
     }
 
-    private void writeByteCodeToFile(byte[] bytes, File file) {
-        getLog().debug(WRITING_BYTE_CODE_TO_FILE.formatted(file));
-        if (clearFile(file)) {
+    /**
+     * Returns the byte code that a class file enhanced in place was enhanced
+     * from, when the class depends on a type that changed and the enhancement
+     * cache still knows its original byte code. Returns null if the class file
+     * is to be left as it is.
+     */
+    private byte[] findUnenhancedBytes(String className, byte[] enhancedBytes, File classFile) {
+        if (!invalidatedTypes.contains(className)) {
+            return null;
+        }
+        byte[] result = null;
+        if (cache != null && outputDirectory == null) {
             try {
-                Files.write( file.toPath(), bytes);
-                getLog().debug(AMOUNT_BYTES_WRITTEN_TO_FILE.formatted(bytes.length, file));
+                result = cache.getOriginal(enhancedBytes);
+            } catch (IOException e) {
+                getLog().warn(UNABLE_TO_READ_FROM_ENHANCEMENT_CACHE.formatted(classFile), e);
             }
-            catch (FileNotFoundException e) {
-                getLog().error(ERROR_OPENING_FILE_FOR_WRITING.formatted(file), e );
+        }
+        if (result == null || ClassFileInspector.isEnhanced(result)) {
+            getLog().warn(UNABLE_TO_ENHANCE_DEPENDENT_TYPE_AGAIN.formatted(classFile));
+            return null;
+        }
+        getLog().debug(ENHANCING_DEPENDENT_TYPE_AGAIN.formatted(classFile));
+        return result;
+    }
+
+    /**
+     * Keeps the original byte code of a class enhanced in place in the cache,
+     * so that it can be enhanced again when a type it depends on changes.
+     */
+    private void rememberUnenhancedBytes(byte[] enhancedBytes, byte[] originalBytes, File classFile) {
+        if (cache == null || outputDirectory != null) {
+            return;
+        }
+        try {
+            cache.putOriginal(enhancedBytes, originalBytes);
+        } catch (IOException e) {
+            getLog().warn(UNABLE_TO_WRITE_TO_ENHANCEMENT_CACHE.formatted(classFile), e);
+        }
+    }
+
+    /**
+     * Uses the constant pool to rule out classes the enhancer would return
+     * unchanged: only persistence types, the types discovered while scanning
+     * them and, with extended enhancement, classes accessing the fields of a
+     * persistence type of this module or of the class path are handed to the
+     * enhancer.
+     */
+    private boolean mayNeedEnhancement(String className, byte[] bytes) {
+        if (ClassFileInspector.isPersistenceType(bytes)
+                || (enhancementContext != null && enhancementContext.isDiscoveredType(className))) {
+            return true;
+        }
+        if (enableExtendedEnhancement && ClassFileInspector.referencesFieldsOf(bytes, this::isKnownPersistenceType)) {
+            return true;
+        }
+        getLog().debug(CLASS_FILE_DOES_NOT_NEED_ENHANCEMENT.formatted(className));
+        return false;
+    }
+
+    /**
+     * Tells whether the enhancer may rewrite the accesses to the fields of the
+     * class. Type discovery knows the persistence types of this module. A class
+     * from elsewhere on the class path, such as an entity of a dependency or of
+     * a sibling module, is inspected once through the class loader of the
+     * enhancement context, and counts as persistent if it cannot be found.
+     */
+    private boolean isKnownPersistenceType(String className) {
+        if (persistenceTypes.contains(className)
+                || (enhancementContext != null && enhancementContext.isDiscoveredType(className))) {
+            return true;
+        }
+        Boolean result = fieldOwners.get(className);
+        if (result == null) {
+            result = !getClassFile(className).isFile() && isPersistenceTypeOnClasspath(className);
+            fieldOwners.put(className, result);
+        }
+        return result;
+    }
+
+    private boolean isPersistenceTypeOnClasspath(String className) {
+        ClassLoader classLoader = getEnhancementContext().getLoadingClassLoader();
+        try (InputStream in = classLoader.getResourceAsStream(className.replace('.', '/') + ".class")) {
+            return in == null || ClassFileInspector.isPersistenceType(in.readAllBytes());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void completeDiscoveryRecord(String className, byte[] bytesOnDisk) {
+        if (discoveryRecords != null) {
+            discoveryRecords.complete(className, bytesOnDisk);
+        }
+    }
+
+    private byte[] readClassFile(File classFile) throws IOException {
+        byte[] bytes = classBytes != null ? classBytes.get(classFile) : null;
+        return bytes != null ? bytes : blockingIo(() -> Files.readAllBytes(classFile.toPath()));
+    }
+
+    /**
+     * Enhances the class, through the cache when there is one. The key of the
+     * cache covers the state of the project types the class depends on, as
+     * the enhanced byte code of a class depends on its super classes and
+     * embeddables as well.
+     */
+    private byte[] enhance(String className, byte[] originalBytes, File classFile) throws IOException {
+        if (cache == null) {
+            return getEnhancer().enhance(className, originalBytes);
+        }
+        String key = cache.key(originalBytes, dependencyStates != null ? dependencyStates.describe(originalBytes) : "");
+        try {
+            byte[] cachedBytes = cache.get(key);
+            if (cachedBytes != null) {
+                getLog().debug(FOUND_CLASS_FILE_IN_ENHANCEMENT_CACHE.formatted(classFile));
+                return cachedBytes.length == 0 ? null : cachedBytes;
             }
-            catch (IOException e) {
-                getLog().error(ERROR_WRITING_BYTES_TO_FILE.formatted(file), e );
+        } catch (IOException e) {
+            getLog().warn(UNABLE_TO_READ_FROM_ENHANCEMENT_CACHE.formatted(classFile), e);
+        }
+        byte[] newBytes = getEnhancer().enhance(className, originalBytes);
+        try {
+            cache.put(key, newBytes);
+        } catch (IOException e) {
+            getLog().warn(UNABLE_TO_WRITE_TO_ENHANCEMENT_CACHE.formatted(classFile), e);
+        }
+        return newBytes;
+    }
+
+    /**
+     * Writes the bytes to a sibling temporary file that is then moved over the
+     * class file, so an interrupted build never leaves an empty or truncated class file.
+     */
+    private void writeByteCodeToFile(byte[] bytes, File file) {
+        getLog().debug(WRITING_BYTE_CODE_TO_FILE.formatted(file));
+        Path target = file.toPath();
+        Path tempFile = target.resolveSibling(file.getName() + TEMP_FILE_SUFFIX);
+        try {
+            blockingIo(() -> {
+                Files.write(tempFile, bytes);
+                try {
+                    return Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    return Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            });
+            getLog().debug(AMOUNT_BYTES_WRITTEN_TO_FILE.formatted(bytes.length, file));
+        }
+        catch (IOException e) {
+            getLog().error(ERROR_WRITING_BYTES_TO_FILE.formatted(file), e );
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
             }
         }
     }
 
-    private boolean clearFile(File file) {
-        getLog().debug(TRYING_TO_CLEAR_FILE.formatted(file));
-        boolean success = false;
-        if ( file.delete() ) {
+    @FunctionalInterface
+    private interface IoOperation<T> {
+        T run() throws IOException;
+    }
+
+    private static class IoBlocker<T> implements ForkJoinPool.ManagedBlocker {
+
+        private final IoOperation<T> operation;
+        private boolean done;
+        private T result;
+        private IOException exception;
+
+        IoBlocker(IoOperation<T> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean block() {
             try {
-                if ( !file.createNewFile() ) {
-                    getLog().error(UNABLE_TO_CREATE_FILE.formatted(file));
-                } else {
-                    getLog().info(SUCCESFULLY_CLEARED_FILE.formatted(file));
-                    success = true;
-                }
+                result = operation.run();
+            } catch (IOException e) {
+                exception = e;
             }
-            catch (IOException e) {
-                getLog().warn(PROBLEM_CLEARING_FILE.formatted(file), e);
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+
+        T getResult() throws IOException {
+            if (exception != null) {
+                throw exception;
             }
+            return result;
         }
-        else {
-            getLog().error(UNABLE_TO_DELETE_FILE.formatted(file));
+
+    }
+
+    private static class ClassFileAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> classFiles;
+        private final int from;
+        private final int to;
+        private final Consumer<File> action;
+
+        ClassFileAction(List<File> classFiles, int from, int to, Consumer<File> action) {
+            this.classFiles = classFiles;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(classFiles.get(from));
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                    new ClassFileAction(classFiles, from, middle, action),
+                    new ClassFileAction(classFiles, middle, to, action));
+            }
         }
-    return success;
+
     }
-    
+
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+    static final int WRITE_QUEUE_CAPACITY = 1024;
+    static final int DISCOVERY_QUEUE_CAPACITY = 1024;
+    static final String WAR_CLASSES_PREFIX = "WEB-INF/classes/";
+
     // info messages
-    static final String SUCCESFULLY_CLEARED_FILE = "Succesfully cleared the contents of file: %s";
     static final String SUCCESFULLY_ENHANCED_CLASS_FILE = "Succesfully enhanced class file: %s";
     static final String SKIPPING_FILE = "Skipping file: %s";
+    static final String SKIPPING_UNCHANGED_FILE = "Skipping file, enhanced byte code is identical to the original: %s";
     static final String SUCCESFULLY_DISCOVERED_TYPES_FOR_CLASS_FILE = "Succesfully discovered types for classes in file: %s";
     static final String ADDED_FILE_TO_SOURCE_SET = "Added file to source set: %s";
+    static final String SKIPPING_ALREADY_ENHANCED_FILE = "Skipping file, the class is already enhanced: %s";
+    static final String ALREADY_ENHANCED_SUMMARY = "%s class files were already enhanced and have been skipped";
+    static final String INVALIDATED_DEPENDENT_TYPES = "Invalidated %s classes depending on %s changed classes";
+    static final String REPLAYED_DISCOVERY_SUMMARY = "Type discovery: replayed the recorded types of %s unchanged class files";
+    static final String DISCOVERING_CLASS_CHANGED_OUTSIDE_SOURCE_SET = "Discovering types again, the class file changed outside of the source set: %s";
+    static final String ENHANCEMENT_CACHE_SUMMARY = "Enhancement cache: %s hits, %s misses";
+    static final String SKIPPING_EXECUTION_OF_ENHANCE_MOJO = "Skipping execution of enhance mojo, 'skip' is set to true";
+    static final String USING_COMPILER_CHANGE_FEED = "Using the %s class files created by the compiler as listed in: %s";
+    static final String COMPILER_CHANGE_FEED_NOT_USABLE = "Scanning all class files, the compiler change feed is missing or cannot be trusted: %s";
+    static final String SUCCESFULLY_ENHANCED_ARCHIVE = "Succesfully enhanced %s classes in archive: %s";
+    static final String SKIPPING_ARCHIVE = "Skipping archive, it holds no classes to enhance: %s";
+    static final String INCREMENTAL_ENHANCEMENT_SUMMARY = "Incremental enhancement: %s class files were up to date, %s class files were processed";
     
     // warning messages
-    static final String PROBLEM_CLEARING_FILE = "Problem clearing file for writing out enhancements [ %s ]";
     static final String ENABLE_LAZY_INITIALIZATION_DEPRECATED = "The 'enableLazyInitialization' configuration is deprecated and will be removed. Set the value to 'true' to get rid of this warning";
+    static final String UNABLE_TO_LOAD_ENHANCEMENT_MANIFEST = "Unable to load the enhancement manifest from folder: %s";
+    static final String UNABLE_TO_STORE_ENHANCEMENT_MANIFEST = "Unable to store the enhancement manifest to file: %s";
+    static final String UNABLE_TO_LOAD_DISCOVERY_RECORDS = "Unable to load the type discovery records from folder: %s";
+    static final String UNABLE_TO_STORE_DISCOVERY_RECORDS = "Unable to store the type discovery records to file: %s";
+    static final String UNABLE_TO_LOAD_TYPE_GRAPH = "Unable to load the type graph from folder: %s";
+    static final String UNABLE_TO_FINGERPRINT_CLASSPATH = "Unable to fingerprint the class path, the state of previous runs is not reused";
+    static final String UNABLE_TO_STORE_TYPE_GRAPH = "Unable to store the type graph to file: %s";
+    static final String UNABLE_TO_READ_FROM_ENHANCEMENT_CACHE = "Unable to read from the enhancement cache for class file: %s";
+    static final String UNABLE_TO_WRITE_TO_ENHANCEMENT_CACHE = "Unable to write to the enhancement cache for class file: %s";
+    static final String UNABLE_TO_EVICT_ENHANCEMENT_CACHE = "Unable to evict entries from the enhancement cache in folder: %s";
+    static final String UNABLE_TO_READ_COMPILER_CHANGE_FEED = "Unable to read the compiler change feed: %s";
+    static final String UNABLE_TO_MARK_COMPILER_CHANGE_FEED_CONSUMED = "Unable to record that the compiler change feed was consumed: %s";
+    static final String UNABLE_TO_CLOSE_CLASS_BYTES_STORE = "Unable to release the class bytes kept in between type discovery and enhancement";
+    static final String UNABLE_TO_CLOSE_CLASSLOADER = "Unable to close the classloader of the enhancement context";
+    static final String UNABLE_TO_ENHANCE_DEPENDENT_TYPE_AGAIN = "Class file depends on a changed type but was enhanced in place and its original byte code is unknown, recompile it to enhance it again: %s";
+    static final String SKIPPING_SIGNED_ARCHIVE = "Skipping signed archive, enhancing its classes would invalidate its signature: %s";
     static final String ENABLE_DIRTY_TRACKING_DEPRECATED = "The 'enableDirtyTracking' configuration is deprecated and will be removed. Set the value to 'true' to get rid of this warning";
     
     // error messages
-    static final String UNABLE_TO_CREATE_FILE = "Unable to create file: %s"; 
-    static final String UNABLE_TO_DELETE_FILE = "Unable to delete file: %s"; 
     static final String ERROR_WRITING_BYTES_TO_FILE = "Error writing bytes to file : %s";
-    static final String ERROR_OPENING_FILE_FOR_WRITING = "Error opening file for writing : %s";
     static final String ERROR_WHILE_ENHANCING_CLASS_FILE = "An exception occurred while trying to class file: %s";
     static final String UNABLE_TO_DISCOVER_TYPES_FOR_CLASS_FILE = "Unable to discover types for classes in file: %s";
+    static final String UNABLE_TO_SCAN_FILE_SET = "Unable to scan the files of the FileSet with base directory: %s";
+    static final String UNABLE_TO_DISCOVER_TYPES_IN_ARCHIVE = "Unable to discover types for classes in archive: %s";
+    static final String ERROR_WHILE_ENHANCING_ARCHIVE = "An exception occurred while trying to enhance archive: %s";
+    static final String ERROR_WHILE_ENHANCING_ARCHIVE_ENTRY = "An exception occurred while trying to enhance class %s in archive: %s";
     static final String UNEXPECTED_ERROR_WHILE_CONSTRUCTING_CLASSLOADER = "An unexpected error occurred while constructing the classloader";
     
     // debug messages
-    static final String TRYING_TO_CLEAR_FILE = "Trying to clear the contents of file: %s";
     static final String AMOUNT_BYTES_WRITTEN_TO_FILE = "%s bytes were succesfully written to file: %s";
     static final String WRITING_BYTE_CODE_TO_FILE = "Writing byte code to file: %s";
     static final String DETERMINE_CLASS_NAME_FOR_FILE = "Determining class name for file: %s";
@@ -302,6 +1658,27 @@ public class EnhanceMojo extends AbstractMojo {
     static final String STARTING_ASSEMBLY_OF_SOURCESET = "Starting assembly of the source set";
     static final String ENDING_ASSEMBLY_OF_SOURCESET = "Ending the assembly of the source set";
     static final String ADDED_DEFAULT_FILESET_WITH_BASE_DIRECTORY = "Addded a default FileSet with base directory: %s";
+    static final String LOADING_ENHANCEMENT_MANIFEST = "Loading the enhancement manifest from folder: %s";
+    static final String CLASS_FILE_UP_TO_DATE = "Class file is up to date: %s";
+    static final String USING_ENHANCEMENT_CACHE = "Using enhancement cache in folder: %s";
+    static final String FOUND_CLASS_FILE_IN_ENHANCEMENT_CACHE = "Found enhanced byte code in the enhancement cache for class file: %s";
+    static final String EVICTED_ENTRIES_FROM_ENHANCEMENT_CACHE = "Evicted %s entries from the enhancement cache in folder: %s";
+    static final String CLASS_BYTES_SPILLED_TO_DISK = "Class bytes exceeding %s bytes were spilled to a memory-mapped file";
+    static final String SKIPPING_TYPE_DISCOVERY_FOR_CLASS_FILE = "Skipping type discovery, no persistence annotations in class file: %s";
+    static final String SKIPPING_TYPE_DISCOVERY_FOR_ENHANCED_CLASS_FILE = "Skipping type discovery, the class is already enhanced: %s";
+    static final String REPLAYED_DISCOVERED_TYPES_FOR_CLASS_FILE = "Replayed the recorded types for unchanged class file: %s";
+    static final String INVALIDATED_DEPENDENT_TYPE = "Class depends on a changed type and is not trusted to the manifest: %s";
+    static final String ENHANCING_DEPENDENT_TYPE_AGAIN = "Enhancing class file again from its original byte code found in the enhancement cache: %s";
+    static final String CLASS_FILE_DOES_NOT_NEED_ENHANCEMENT = "Class does not reference any persistence type and does not need enhancement: %s";
+    static final String TRYING_TO_DISCOVER_TYPES_IN_ARCHIVE = "Trying to discover types for classes in archive: %s";
+    static final String TRYING_TO_ENHANCE_ARCHIVE = "Trying to enhance archive: %s";
+    static final String SUCCESFULLY_ENHANCED_ARCHIVE_ENTRY = "Succesfully enhanced class %s in archive: %s";
+    static final String LINKED_CLASS_FILE = "Linked class file into the output directory: %s";
+    static final String COPIED_CLASS_FILE = "Copied class file into the output directory, hard links are not supported: %s";
+    static final String USING_CLASSPATH_INDEX_DIRECTORY = "Using the classpath index in folder: %s";
+    static final String SAVED_ENHANCEMENT_CONTEXT_LOOKUPS = "Answered %s annotation lookups of the enhancement context from earlier decisions";
+    static final String PROJECT_CLASS_FILES_SUMMARY = "Resolved %s project types from the class bytes read during type discovery";
+    static final String CLOSING_CLASSLOADER = "Closing the classloader, %s lookups of missing classes and resources were answered from its cache";
     static final String STARTING_EXECUTION_OF_ENHANCE_MOJO = "Starting execution of enhance mojo";
     static final String ENDING_EXECUTION_OF_ENHANCE_MOJO = "Ending execution of enhance mojo";
     
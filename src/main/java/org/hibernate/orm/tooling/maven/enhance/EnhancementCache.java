@@ -0,0 +1,232 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store of enhanced byte code that can be shared between
+ * modules, checkouts and concurrently running builds. Entries are keyed by the
+ * hash of the original class bytes and the enhancement configuration, and are
+ * evicted least recently used first once the cache grows beyond its maximum size.
+ * <p>
+ * Entries are written to a temporary file and atomically moved into place, so
+ * readers never observe partially written entries. A class that did not need
+ * enhancement is recorded as an empty entry. The original bytes of a class
+ * enhanced in place are stored under a key derived from its enhanced bytes.
+ */
+class EnhancementCache {
+
+    static final String LOCK_FILE_NAME = ".lock";
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+    // shares the cache directory, its files are evicted like cache entries unless open
+    static final String CLASSPATH_INDEX_DIRECTORY = "classpath-index";
+    // takes the place of the description of the dependencies in the keys of original bytes
+    static final String ORIGINAL_BYTES = "original";
+
+    private final Path directory;
+    private final String fingerprint;
+    private final long maxSize;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    EnhancementCache(File directory, String fingerprint, long maxSize) {
+        this.directory = directory.toPath();
+        this.fingerprint = fingerprint;
+        this.maxSize = maxSize;
+    }
+
+    String key(byte[] originalBytes) {
+        return key(originalBytes, "");
+    }
+
+    /**
+     * Returns the key of the given class file, taking into account the state
+     * of the project types its enhancement depends on as described by
+     * {@link DependencyStates#describe(byte[])}.
+     */
+    String key(byte[] originalBytes, String dependencies) {
+        byte[] fingerprintBytes = (fingerprint + '\n' + dependencies + '\n').getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = new byte[fingerprintBytes.length + originalBytes.length];
+        System.arraycopy(fingerprintBytes, 0, keyBytes, 0, fingerprintBytes.length);
+        System.arraycopy(originalBytes, 0, keyBytes, fingerprintBytes.length, originalBytes.length);
+        return EnhancementManifest.hash(keyBytes);
+    }
+
+    /**
+     * Returns the cached enhanced bytes for the given key, an empty array if the
+     * class was found not to need enhancement, or null if the key is not cached.
+     */
+    byte[] get(String key) throws IOException {
+        Path entry = entryPath(key);
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return bytes;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the enhanced bytes for the given key; null bytes record that the
+     * class does not need enhancement.
+     */
+    void put(String key, byte[] enhancedBytes) throws IOException {
+        write(entryPath(key), enhancedBytes == null ? new byte[0] : enhancedBytes);
+    }
+
+    /**
+     * Remembers the bytes that the given enhanced bytes were enhanced from, so
+     * that a class file enhanced in place can be enhanced again from scratch.
+     */
+    void putOriginal(byte[] enhancedBytes, byte[] originalBytes) throws IOException {
+        Path entry = entryPath(key(enhancedBytes, ORIGINAL_BYTES));
+        if (Files.exists(entry)) {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+            write(entry, originalBytes);
+        }
+    }
+
+    /**
+     * Returns the bytes that the given enhanced bytes were enhanced from, or
+     * null if they are not known.
+     */
+    byte[] getOriginal(byte[] enhancedBytes) throws IOException {
+        try {
+            return Files.readAllBytes(entryPath(key(enhancedBytes, ORIGINAL_BYTES)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void write(Path entry, byte[] bytes) throws IOException {
+        Files.createDirectories(entry.getParent());
+        Path tempFile = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), TEMP_FILE_SUFFIX);
+        try {
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // another build stored the same entry in the meantime
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits within its
+     * maximum size. Eviction is skipped when another process, or another module
+     * of the same parallel build, is already evicting. The files of the
+     * classpath index kept in the cache directory count toward the maximum size
+     * and are evicted alike, except those open in this virtual machine.
+     */
+    int evict() throws IOException {
+        Files.createDirectories(directory);
+        try (RandomAccessFile lockFile = new RandomAccessFile(directory.resolve(LOCK_FILE_NAME).toFile(), "rw");
+             FileChannel channel = lockFile.getChannel();
+             FileLock lock = tryLock(channel)) {
+            if (lock == null) {
+                return 0;
+            }
+            List<Path> entries = new ArrayList<Path>();
+            long size = 0;
+            try (Stream<Path> paths = Files.walk(directory, 2)) {
+                for (Path path : (Iterable<Path>)paths::iterator) {
+                    String fileName = path.getFileName().toString();
+                    if (Files.isRegularFile(path)
+                            && !fileName.equals(LOCK_FILE_NAME)
+                            && !fileName.endsWith(TEMP_FILE_SUFFIX)) {
+                        entries.add(path);
+                        size += Files.size(path);
+                    }
+                }
+            }
+            int evicted = 0;
+            if (size > maxSize) {
+                entries.sort(Comparator.comparing(EnhancementCache::lastAccess));
+                for (Path entry : entries) {
+                    if (size <= maxSize) {
+                        break;
+                    }
+                    if (ClasspathIndex.isOpen(entry)) {
+                        continue;
+                    }
+                    long entrySize = Files.size(entry);
+                    if (Files.deleteIfExists(entry)) {
+                        size -= entrySize;
+                        evicted++;
+                    }
+                }
+            }
+            return evicted;
+        }
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+
+    File getDirectory() {
+        return directory.toFile();
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // another module of this build holds the lock
+            return null;
+        }
+    }
+
+    private static FileTime lastAccess(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).lastModifiedTime();
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+}
@@ -1,12 +1,30 @@
 package org.hibernate.orm.tooling.maven.enhance;
 
+import java.lang.annotation.Annotation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
 import org.hibernate.bytecode.enhance.spi.DefaultEnhancementContext;
 import org.hibernate.bytecode.enhance.spi.UnloadedClass;
 import org.hibernate.bytecode.enhance.spi.UnloadedField;
 
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.metamodel.Type.PersistenceType;
+
 public class EnhancementContext extends DefaultEnhancementContext {
 
     private ClassLoader classLoader = null;
+    private final Map<String, PersistenceType> discoveredTypes = new ConcurrentHashMap<String, PersistenceType>();
+    private final ThreadLocal<Map<String, PersistenceType>> recordedTypes = new ThreadLocal<Map<String, PersistenceType>>();
+    private final Map<String, Boolean> entityClasses = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> compositeClasses = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> mappedSuperclassClasses = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> persistentFields = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> mappedCollections = new ConcurrentHashMap<String, Boolean>();
+    private final AtomicInteger savedLookups = new AtomicInteger();
     private boolean enableAssociationManagement = false;
     private boolean enableDirtyTracking = false;
     private boolean enableLazyInitialization = false;
@@ -30,6 +48,41 @@ public class EnhancementContext extends DefaultEnhancementContext {
 		return classLoader;
 	}
 
+	@Override
+	public boolean isEntityClass(UnloadedClass classDescriptor) {
+		return memoize(entityClasses, classDescriptor.getName(), () -> super.isEntityClass(classDescriptor));
+	}
+
+	/**
+	 * Only the annotation lookup is memoized, a class may still be discovered
+	 * as an embeddable after the enhancer first asked about it.
+	 */
+	@Override
+	public boolean isCompositeClass(UnloadedClass classDescriptor) {
+		return memoize(compositeClasses, classDescriptor.getName(), () -> classDescriptor.hasAnnotation(Embeddable.class))
+			|| discoveredTypes.get(classDescriptor.getName()) == PersistenceType.EMBEDDABLE;
+	}
+
+	@Override
+	public boolean isMappedSuperclassClass(UnloadedClass classDescriptor) {
+		return memoize(mappedSuperclassClasses, classDescriptor.getName(), () -> super.isMappedSuperclassClass(classDescriptor));
+	}
+
+	/**
+	 * The enhancer describes a field anew for every pass over the fields of a
+	 * class, so the decisions are keyed by the description of the field, which
+	 * holds its declaring class, type and name, rather than by the instance.
+	 */
+	@Override
+	public boolean isPersistentField(UnloadedField field) {
+		return memoize(persistentFields, field.toString(), () -> super.isPersistentField(field));
+	}
+
+	@Override
+	public boolean isMappedCollection(UnloadedField field) {
+		return memoize(mappedCollections, field.toString(), () -> super.isMappedCollection(field));
+	}
+
 	@Override
 	public boolean doBiDirectionalAssociationManagement(UnloadedField field) {
 		return enableAssociationManagement;
@@ -55,4 +108,84 @@ public class EnhancementContext extends DefaultEnhancementContext {
 			return enableExtendedEnhancement;
 	}
 
+	@Override
+	public void registerDiscoveredType(UnloadedClass classDescriptor, PersistenceType type) {
+		super.registerDiscoveredType(classDescriptor, type);
+		discoveredTypes.put(classDescriptor.getName(), type);
+		Map<String, PersistenceType> recorded = recordedTypes.get();
+		if (recorded != null) {
+			recorded.put(classDescriptor.getName(), type);
+		}
+	}
+
+	/**
+	 * Runs the discovery on the calling thread and returns the types it
+	 * registered, so that they can be replayed in a later build.
+	 */
+	Map<String, PersistenceType> recordDiscoveredTypes(Runnable discovery) {
+		Map<String, PersistenceType> recorded = new LinkedHashMap<String, PersistenceType>();
+		recordedTypes.set(recorded);
+		try {
+			discovery.run();
+		} finally {
+			recordedTypes.remove();
+		}
+		return recorded;
+	}
+
+	/**
+	 * Registers a type recorded by {@link #recordDiscoveredTypes(Runnable)}
+	 * without describing its class.
+	 */
+	void replayDiscoveredType(String className, PersistenceType type) {
+		registerDiscoveredType(new ReplayedClass(className), type);
+	}
+
+	/**
+	 * Tells whether type discovery registered the class with the given name,
+	 * without having to describe the class first.
+	 */
+	boolean isDiscoveredType(String className) {
+		return discoveredTypes.containsKey(className);
+	}
+
+	/**
+	 * Returns the number of annotation lookups answered from earlier decisions.
+	 */
+	int getSavedLookups() {
+		return savedLookups.get();
+	}
+
+	private boolean memoize(Map<String, Boolean> decisions, String key, BooleanSupplier lookup) {
+		Boolean decision = decisions.get(key);
+		if (decision != null) {
+			savedLookups.incrementAndGet();
+			return decision;
+		}
+		// not computed within the map, the lookup may describe further types and come back here
+		decision = lookup.getAsBoolean();
+		decisions.putIfAbsent(key, decision);
+		return decision;
+	}
+
+	private static class ReplayedClass implements UnloadedClass {
+
+		private final String name;
+
+		ReplayedClass(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean hasAnnotation(Class<? extends Annotation> annotationType) {
+			return false;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+	}
+
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the content hash of every class file left behind by a previous
+ * enhancement run, so that unchanged class files can be skipped.
+ */
+class EnhancementManifest {
+
+    static final String FILE_NAME = "manifest";
+
+    private final File file;
+    private final String fingerprint;
+    private final Map<String, String> previousHashes;
+    private final Map<String, String> currentHashes = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private EnhancementManifest(File file, String fingerprint, Map<String, String> previousHashes) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.previousHashes = previousHashes;
+    }
+
+    /**
+     * Loads the manifest stored in the given state directory. The previously
+     * recorded hashes are discarded when the manifest is missing or was written
+     * with a different configuration fingerprint.
+     */
+    static EnhancementManifest load(File stateDirectory, String fingerprint) throws IOException {
+        File file = new File(stateDirectory, FILE_NAME);
+        Map<String, String> previousHashes = new HashMap<String, String>();
+        if (file.isFile()) {
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (!lines.isEmpty() && fingerprint.equals(lines.get(0))) {
+                for (String line : lines.subList(1, lines.size())) {
+                    int separator = line.indexOf('=');
+                    if (separator > 0) {
+                        previousHashes.put(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            }
+        }
+        return new EnhancementManifest(file, fingerprint, previousHashes);
+    }
+
+    /**
+     * Returns true if the given bytes are exactly the bytes that were left on
+     * disk for this class by the previous run.
+     */
+    boolean isUpToDate(String className, byte[] bytes) {
+        String previousHash = previousHashes.get(className);
+        if (previousHash != null && previousHash.equals(hash(bytes))) {
+            currentHashes.put(className, previousHash);
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Like {@link #isUpToDate(String, byte[])}, without counting the outcome or
+     * retaining the class.
+     */
+    boolean isUnchanged(String className, byte[] bytes) {
+        String previousHash = previousHashes.get(className);
+        return previousHash != null && previousHash.equals(hash(bytes));
+    }
+
+    /**
+     * Records the bytes that this run left on disk for the given class.
+     */
+    void record(String className, byte[] bytes) {
+        currentHashes.put(className, hash(bytes));
+    }
+
+    /**
+     * Keeps the previously recorded hashes of the classes that this run did not
+     * look at, for runs that only process part of the classes.
+     */
+    void retainPrevious() {
+        previousHashes.forEach(currentHashes::putIfAbsent);
+    }
+
+    void store() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add(fingerprint);
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(currentHashes).entrySet()) {
+            lines.add(entry.getKey() + '=' + entry.getValue());
+        }
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), lines);
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Version;
+import org.hibernate.bytecode.enhance.internal.bytebuddy.CoreTypePool;
+import org.hibernate.bytecode.enhance.internal.bytebuddy.ModelTypePool;
+import org.hibernate.bytecode.enhance.spi.Enhancer;
+import org.hibernate.bytecode.internal.BytecodeProviderInitiator;
+import org.hibernate.bytecode.internal.bytebuddy.BytecodeProviderImpl;
+import org.hibernate.bytecode.spi.BytecodeProvider;
+
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.pool.TypePool;
+
+/**
+ * Keeps the bytecode provider, with its ByteBuddy state, and the type pool
+ * resolving the JDK, Jakarta Persistence and Hibernate types for as long as
+ * the plugin realm lives. Every module of the reactor that enhances classes
+ * thereby skips their warm-up, while its enhancer still gets an enhancement
+ * context and a type pool for its own classes.
+ * <p>
+ * The types resolved from the JARs on the class path of a module are kept as
+ * well, keyed by the Hibernate version and the path, size and timestamp of
+ * every JAR, so that a long-lived realm such as the one of the Maven daemon
+ * reuses them across builds until one of the JARs changes. Given an index
+ * directory, the class files of the JARs are read through a {@link ClasspathIndex}
+ * that the modules and builds using the same JARs share.
+ */
+final class EnhancerFactory {
+
+    static final int MAX_CLASSPATH_TYPE_POOLS = 32;
+
+    private static volatile EnhancerFactory instance;
+
+    private final BytecodeProvider bytecodeProvider;
+    private final CoreTypePool coreTypePool;
+    private final Map<String, CoreTypePool> classpathTypePools = new LinkedHashMap<String, CoreTypePool>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CoreTypePool> eldest) {
+            // the JAR files of an evicted pool are closed once it is no longer reachable
+            return size() > MAX_CLASSPATH_TYPE_POOLS;
+        }
+    };
+
+    private EnhancerFactory(BytecodeProvider bytecodeProvider, CoreTypePool coreTypePool) {
+        this.bytecodeProvider = bytecodeProvider;
+        this.coreTypePool = coreTypePool;
+    }
+
+    static EnhancerFactory getInstance() {
+        EnhancerFactory result = instance;
+        if (result == null) {
+            synchronized (EnhancerFactory.class) {
+                if (instance == null) {
+                    instance = new EnhancerFactory(
+                        BytecodeProviderInitiator.buildDefaultBytecodeProvider(),
+                        new CoreTypePool());
+                }
+                result = instance;
+            }
+        }
+        return result;
+    }
+
+    Enhancer createEnhancer(EnhancementContext enhancementContext) {
+        return createEnhancer(enhancementContext, List.of(), null, null);
+    }
+
+    /**
+     * Creates an enhancer for the given context, resolving the types of the
+     * given JARs through the type pool shared by all modules using them. The
+     * index of the JARs is kept in the given directory, if any. Types the
+     * given project class files hold are not looked up through the class loader.
+     */
+    Enhancer createEnhancer(
+            EnhancementContext enhancementContext,
+            List<File> classpathJars,
+            File indexDirectory,
+            ClassFileLocator projectClassFiles) {
+        if (bytecodeProvider instanceof BytecodeProviderImpl) {
+            ClassFileLocator classFileLocator = ClassFileLocator.ForClassLoader.of(enhancementContext.getLoadingClassLoader());
+            if (projectClassFiles != null) {
+                classFileLocator = new ClassFileLocator.Compound(projectClassFiles, classFileLocator);
+            }
+            return ((BytecodeProviderImpl)bytecodeProvider).getEnhancer(
+                enhancementContext,
+                ModelTypePool.buildModelTypePool(classFileLocator, getTypePool(classpathJars, indexDirectory)));
+        }
+        return bytecodeProvider.getEnhancer(enhancementContext);
+    }
+
+    CoreTypePool getTypePool(List<File> classpathJars) {
+        return getTypePool(classpathJars, null);
+    }
+
+    CoreTypePool getTypePool(List<File> classpathJars, File indexDirectory) {
+        List<File> jars = new ArrayList<File>();
+        StringBuilder key = new StringBuilder(Version.getVersionString());
+        for (File jar : classpathJars) {
+            if (jar.isFile()) {
+                jars.add(jar);
+                key.append(File.pathSeparatorChar)
+                    .append(jar.getAbsolutePath())
+                    .append(':').append(jar.length())
+                    .append(':').append(jar.lastModified());
+            }
+        }
+        if (jars.isEmpty()) {
+            return coreTypePool;
+        }
+        synchronized (classpathTypePools) {
+            CoreTypePool typePool = classpathTypePools.get(key.toString());
+            if (typePool == null) {
+                typePool = new ClasspathTypePool(coreTypePool, createJarLocator(jars, indexDirectory));
+                classpathTypePools.put(key.toString(), typePool);
+            }
+            return typePool;
+        }
+    }
+
+    BytecodeProvider getBytecodeProvider() {
+        return bytecodeProvider;
+    }
+
+    private static ClassFileLocator createJarLocator(List<File> jars, File indexDirectory) {
+        if (indexDirectory != null) {
+            try {
+                return ClasspathIndex.open(indexDirectory, jars);
+            } catch (IOException e) {
+                // the JARs cannot be indexed, read them as zip files instead
+            }
+        }
+        List<ClassFileLocator> locators = new ArrayList<ClassFileLocator>();
+        for (File jar : jars) {
+            try {
+                locators.add(ClassFileLocator.ForJarFile.of(jar));
+            } catch (IOException e) {
+                // an unreadable JAR leaves its types to the class loader of the module
+            }
+        }
+        return new ClassFileLocator.Compound(locators);
+    }
+
+    /**
+     * Resolves the types of a set of JARs, relying on the core type pool for
+     * the JDK, Jakarta Persistence and Hibernate types.
+     */
+    private static class ClasspathTypePool extends CoreTypePool {
+
+        private final TypePool jarTypePool;
+
+        ClasspathTypePool(CoreTypePool coreTypePool, ClassFileLocator jarLocator) {
+            this.jarTypePool = new TypePool.Default(
+                new TypePool.CacheProvider.Simple(),
+                jarLocator,
+                TypePool.Default.ReaderMode.FAST,
+                coreTypePool);
+        }
+
+        @Override
+        protected Resolution doDescribe(String name) {
+            return jarTypePool.describe(name);
+        }
+
+    }
+
+}
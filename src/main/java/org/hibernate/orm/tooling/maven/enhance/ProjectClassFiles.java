@@ -0,0 +1,61 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bytebuddy.dynamic.ClassFileLocator;
+
+/**
+ * Locates the classes of the classes directory from the bytes read while
+ * assembling the source set and discovering types, so that resolving a project
+ * type while enhancing another class does not read its class file again. The
+ * bytes are the ones found on disk before enhancement, as kept by the
+ * {@link ClassBytesStore} within its memory budget or spilled beyond it.
+ */
+class ProjectClassFiles implements ClassFileLocator {
+
+    private final ClassBytesStore classBytes;
+    private final File classesDirectory;
+    private final AtomicInteger hits = new AtomicInteger();
+
+    ProjectClassFiles(ClassBytesStore classBytes, File classesDirectory) {
+        this.classBytes = classBytes;
+        this.classesDirectory = classesDirectory;
+    }
+
+    @Override
+    public Resolution locate(String name) throws IOException {
+        byte[] bytes = classBytes.get(new File(classesDirectory, name.replace('.', File.separatorChar) + ".class"));
+        if (bytes == null) {
+            return new Resolution.Illegal(name);
+        }
+        hits.incrementAndGet();
+        return new Resolution.Explicit(bytes);
+    }
+
+    @Override
+    public void close() {
+        // the bytes belong to the class bytes store
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the classes of the project and of its compile class path. The
+ * enhancer looks up many types that are on neither, such as the types of
+ * optional Hibernate features, so the class and resource names that were not
+ * found are remembered and subsequent lookups fail without searching the
+ * parent and every class path element again.
+ */
+class ProjectClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Set<String> missingClasses = ConcurrentHashMap.newKeySet();
+    private final Set<String> missingResources = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger savedLookups = new AtomicInteger();
+
+    ProjectClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (missingClasses.contains(name)) {
+            savedLookups.incrementAndGet();
+            throw new MissingClassException(name);
+        }
+        try {
+            return super.loadClass(name, resolve);
+        } catch (ClassNotFoundException e) {
+            missingClasses.add(name);
+            throw e;
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        if (missingResources.contains(name)) {
+            savedLookups.incrementAndGet();
+            return null;
+        }
+        URL result = super.getResource(name);
+        if (result == null) {
+            missingResources.add(name);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of lookups answered from the names that were not found.
+     */
+    int getSavedLookups() {
+        return savedLookups.get();
+    }
+
+    /**
+     * Thrown for a class that is known to be missing, without the cost of
+     * filling in a stack trace.
+     */
+    private static class MissingClassException extends ClassNotFoundException {
+
+        private static final long serialVersionUID = 1L;
+
+        MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+}
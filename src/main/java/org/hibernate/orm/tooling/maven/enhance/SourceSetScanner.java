@@ -0,0 +1,254 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.apache.maven.shared.model.fileset.FileSet;
+import org.codehaus.plexus.util.AbstractScanner;
+
+/**
+ * Walks the directory of a {@link FileSet} and hands every file matching its
+ * Ant style include and exclude patterns to a consumer as soon as it is found.
+ * The patterns are compiled once per scanner, and directories excluded as a
+ * whole (such as <code>**&#47;baz/**</code>) are skipped without being entered.
+ */
+class SourceSetScanner {
+
+    private final Path baseDirectory;
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private final List<Pattern> excludedDirectories;
+    private final Set<FileVisitOption> visitOptions;
+
+    SourceSetScanner(Path baseDirectory, FileSet fileSet) {
+        this.baseDirectory = baseDirectory;
+        List<String> includePatterns = fileSet.getIncludes().isEmpty()
+            ? List.of("**")
+            : fileSet.getIncludes();
+        List<String> excludePatterns = new ArrayList<String>(fileSet.getExcludes());
+        if (fileSet.isUseDefaultExcludes()) {
+            excludePatterns.addAll(Arrays.asList(AbstractScanner.DEFAULTEXCLUDES));
+        }
+        this.includes = compile(includePatterns);
+        this.excludes = compile(excludePatterns);
+        List<String> excludedDirectoryPatterns = new ArrayList<String>();
+        for (String excludePattern : excludePatterns) {
+            String normalized = normalize(excludePattern);
+            if (normalized.endsWith("/**")) {
+                excludedDirectoryPatterns.add(normalized.substring(0, normalized.length() - 3));
+            }
+        }
+        this.excludedDirectories = compile(excludedDirectoryPatterns);
+        this.visitOptions = fileSet.isFollowSymlinks()
+            ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+            : Collections.<FileVisitOption>emptySet();
+    }
+
+    /**
+     * Scans the base directory on the calling thread.
+     */
+    void scan(Consumer<Path> consumer) throws IOException {
+        if (Files.isDirectory(baseDirectory)) {
+            Files.walkFileTree(baseDirectory, visitOptions, Integer.MAX_VALUE, new Visitor(baseDirectory, consumer, null));
+        }
+    }
+
+    /**
+     * Scans the base directory, walking every sub directory as a separate task
+     * of the given pool. The consumer must be thread safe.
+     */
+    void scan(Consumer<Path> consumer, ForkJoinPool pool) throws IOException {
+        if (Files.isDirectory(baseDirectory)) {
+            try {
+                pool.invoke(new DirectoryAction(baseDirectory, consumer));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Tells whether the given file lies below the base directory and matches
+     * the patterns, without walking the directory.
+     */
+    boolean contains(Path file) {
+        Path base = baseDirectory.toAbsolutePath().normalize();
+        Path normalized = file.toAbsolutePath().normalize();
+        return normalized.startsWith(base)
+            && isIncluded(base.relativize(normalized).toString().replace(file.getFileSystem().getSeparator(), "/"));
+    }
+
+    boolean isIncluded(String relativePath) {
+        return matches(includes, relativePath) && !matches(excludes, relativePath);
+    }
+
+    boolean isExcludedDirectory(String relativePath) {
+        return matches(excludedDirectories, relativePath);
+    }
+
+    private String relativize(Path path) {
+        return baseDirectory.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    private static boolean matches(List<Pattern> patterns, String relativePath) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(relativePath).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(List<String> antPatterns) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String antPattern : antPatterns) {
+            patterns.add(Pattern.compile(toRegex(normalize(antPattern))));
+        }
+        return patterns;
+    }
+
+    private static String normalize(String antPattern) {
+        String normalized = antPattern.trim().replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += "**";
+        }
+        return normalized;
+    }
+
+    /**
+     * Translates an Ant style pattern into a regular expression: '**' matches any
+     * number of directories, '*' and '?' match within a single path segment.
+     */
+    static String toRegex(String antPattern) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < antPattern.length()) {
+            char c = antPattern.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (antPattern.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 3;
+            } else if (antPattern.startsWith("**", i)) {
+                regex.append(".*");
+                i += 2;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+                i++;
+            } else {
+                regex.append("[^/]");
+                i++;
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    private class Visitor extends SimpleFileVisitor<Path> {
+
+        private final Path start;
+        private final Consumer<Path> consumer;
+        private final List<DirectoryAction> forks;
+
+        Visitor(Path start, Consumer<Path> consumer, List<DirectoryAction> forks) {
+            this.start = start;
+            this.consumer = consumer;
+            this.forks = forks;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+            if (directory.equals(start)) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (isExcludedDirectory(relativize(directory))) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (forks != null) {
+                DirectoryAction fork = new DirectoryAction(directory, consumer);
+                fork.fork();
+                forks.add(fork);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (attributes.isRegularFile() && isIncluded(relativize(file))) {
+                consumer.accept(file);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+    }
+
+    private class DirectoryAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Consumer<Path> consumer;
+
+        DirectoryAction(Path directory, Consumer<Path> consumer) {
+            this.directory = directory;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryAction> forks = new ArrayList<DirectoryAction>();
+            try {
+                Files.walkFileTree(directory, visitOptions, Integer.MAX_VALUE, new Visitor(directory, consumer, forks));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (DirectoryAction fork : forks) {
+                fork.join();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records for every persistence type the types it depends on: its super class,
+ * and the types of its fields such as embedded types and association targets.
+ * The graph survives across builds, so that a change to one type can be
+ * propagated to the classes that extend, embed or refer to it.
+ */
+class TypeGraph {
+
+    static final String FILE_NAME = "type-graph";
+
+    private final File file;
+    private final String fingerprint;
+    private final Map<String, Set<String>> previousDependencies;
+    private final Map<String, Set<String>> currentDependencies = new ConcurrentHashMap<String, Set<String>>();
+
+    private TypeGraph(File file, String fingerprint, Map<String, Set<String>> previousDependencies) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.previousDependencies = previousDependencies;
+    }
+
+    /**
+     * Loads the graph stored in the given state directory. A graph written
+     * with a different configuration fingerprint is discarded.
+     */
+    static TypeGraph load(File stateDirectory, String fingerprint) throws IOException {
+        File file = new File(stateDirectory, FILE_NAME);
+        Map<String, Set<String>> previousDependencies = new HashMap<String, Set<String>>();
+        if (file.isFile()) {
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (!lines.isEmpty() && fingerprint.equals(lines.get(0))) {
+                for (String line : lines.subList(1, lines.size())) {
+                    int separator = line.indexOf('=');
+                    if (separator > 0) {
+                        Set<String> dependencies = new HashSet<String>();
+                        if (separator + 1 < line.length()) {
+                            dependencies.addAll(Arrays.asList(line.substring(separator + 1).split(",")));
+                        }
+                        previousDependencies.put(line.substring(0, separator), dependencies);
+                    }
+                }
+            }
+        }
+        return new TypeGraph(file, fingerprint, previousDependencies);
+    }
+
+    void record(String className, Set<String> dependencies) {
+        currentDependencies.put(className, dependencies);
+    }
+
+    /**
+     * Returns the classes that depend, directly or through other classes, on
+     * one of the given classes. The given classes themselves are not included
+     * unless they depend on each other.
+     */
+    Set<String> dependentsOf(Collection<String> classNames) {
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : getDependencies().entrySet()) {
+            for (String dependency : entry.getValue()) {
+                dependents.computeIfAbsent(dependency, key -> new HashSet<String>()).add(entry.getKey());
+            }
+        }
+        Set<String> result = new TreeSet<String>();
+        Deque<String> queue = new ArrayDeque<String>(classNames);
+        while (!queue.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(queue.poll(), Set.of())) {
+                if (result.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    void store() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add(fingerprint);
+        for (Map.Entry<String, Set<String>> entry : new TreeMap<String, Set<String>>(getDependencies()).entrySet()) {
+            lines.add(entry.getKey() + '=' + String.join(",", new TreeSet<String>(entry.getValue())));
+        }
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), lines);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the dependencies recorded in this build, completed with those of
+     * the previous builds for the classes that were not looked at.
+     */
+    private Map<String, Set<String>> getDependencies() {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>(previousDependencies);
+        result.putAll(currentDependencies);
+        return result;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ArchiveRewriterTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testRewrite() throws Exception {
+        File archive = new File(tempDir, "foo.jar");
+        byte[] storedBytes = "stored".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(storedBytes);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+            out.setComment("comment");
+            out.putNextEntry(new ZipEntry("org/foo/Foo.class"));
+            out.write("foo".getBytes());
+            out.closeEntry();
+            ZipEntry storedEntry = new ZipEntry("org/foo/Stored.class");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(storedBytes.length);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(storedBytes);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("org/foo/Bar.class"));
+            out.write("bar".getBytes());
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("foo.txt"));
+            out.write("text".getBytes());
+            out.closeEntry();
+        }
+        File target = new File(tempDir, "target.jar");
+        try (ArchiveRewriter rewriter = ArchiveRewriter.open(archive)) {
+            assertEquals(2, rewriter.rewrite(
+                target.toPath(),
+                name -> name.endsWith(".class"),
+                (name, bytes) -> name.equals("org/foo/Bar.class") ? null : ("new " + new String(bytes)).getBytes()));
+        }
+        try (ZipFile zipFile = new ZipFile(target)) {
+            assertEquals(4, zipFile.size());
+            assertEquals("comment", zipFile.getComment());
+            assertEntry(zipFile, "org/foo/Foo.class", ZipEntry.DEFLATED, "new foo");
+            assertEntry(zipFile, "org/foo/Stored.class", ZipEntry.STORED, "new stored");
+            assertEntry(zipFile, "org/foo/Bar.class", ZipEntry.DEFLATED, "bar");
+            assertEntry(zipFile, "foo.txt", ZipEntry.DEFLATED, "text");
+        }
+        // entries that are not replaced keep their local header, data and data descriptor
+        long compressedSize;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            compressedSize = zipFile.getEntry("foo.txt").getCompressedSize();
+        }
+        assertArrayEquals(localEntry(archive, "foo.txt", compressedSize), localEntry(target, "foo.txt", compressedSize));
+    }
+
+    @Test
+    void testRewriteArchiveWithPrefix() throws Exception {
+        File archive = new File(tempDir, "foo.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+            out.putNextEntry(new ZipEntry("org/foo/Foo.class"));
+            out.write("foo".getBytes());
+            out.closeEntry();
+        }
+        // like the launch script of an executable JAR, without adjusting the offsets of the entries
+        File prefixed = new File(tempDir, "prefixed.jar");
+        byte[] prefix = "#!/bin/sh\n".getBytes();
+        byte[] archiveBytes = Files.readAllBytes(archive.toPath());
+        byte[] prefixedBytes = new byte[prefix.length + archiveBytes.length];
+        System.arraycopy(prefix, 0, prefixedBytes, 0, prefix.length);
+        System.arraycopy(archiveBytes, 0, prefixedBytes, prefix.length, archiveBytes.length);
+        Files.write(prefixed.toPath(), prefixedBytes);
+        File target = new File(tempDir, "target.jar");
+        try (ArchiveRewriter rewriter = ArchiveRewriter.open(prefixed)) {
+            assertEquals(1, rewriter.rewrite(target.toPath(), name -> true, (name, bytes) -> "changed".getBytes()));
+        }
+        byte[] targetBytes = Files.readAllBytes(target.toPath());
+        assertArrayEquals(prefix, Arrays.copyOf(targetBytes, prefix.length));
+        try (ZipFile zipFile = new ZipFile(target)) {
+            assertEntry(zipFile, "org/foo/Foo.class", ZipEntry.DEFLATED, "changed");
+        }
+    }
+
+    private static void assertEntry(ZipFile zipFile, String name, int method, String content) throws Exception {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertEquals(method, entry.getMethod());
+        assertEquals(content, new String(zipFile.getInputStream(entry).readAllBytes()));
+    }
+
+    /**
+     * Returns the local header, the data and the data descriptor of the entry.
+     */
+    private static byte[] localEntry(File archive, String name, long compressedSize) throws Exception {
+        byte[] bytes = Files.readAllBytes(archive.toPath());
+        int start = indexOf(bytes, name) - 30;
+        return Arrays.copyOfRange(bytes, start, start + 30 + name.length() + (int)compressedSize + 16);
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        byte[] textBytes = text.getBytes();
+        for (int i = 0; i <= bytes.length - textBytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + textBytes.length, textBytes, 0, textBytes.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClassBytesStoreTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testInMemory() throws Exception {
+        File fooFile = new File(tempDir, "Foo.class");
+        try (ClassBytesStore store = new ClassBytesStore(1024, tempDir)) {
+            assertNull(store.get(fooFile));
+            store.put(fooFile, "foo".getBytes());
+            assertArrayEquals("foo".getBytes(), store.get(fooFile));
+            // the bytes are kept until the store is closed
+            assertArrayEquals("foo".getBytes(), store.get(fooFile));
+            assertFalse(store.hasSpilled());
+        }
+    }
+
+    @Test
+    void testSpill() throws Exception {
+        File fooFile = new File(tempDir, "Foo.class");
+        File barFile = new File(tempDir, "Bar.class");
+        File bazFile = new File(tempDir, "Baz.class");
+        File spillDirectory = new File(tempDir, "spill");
+        ClassBytesStore store = new ClassBytesStore(4, spillDirectory);
+        store.put(fooFile, "foo".getBytes());
+        store.put(barFile, "barbar".getBytes());
+        assertArrayEquals("barbar".getBytes(), store.get(barFile));
+        // bytes spilled after the spill file was mapped are read as well
+        store.put(bazFile, "bazbazbaz".getBytes());
+        assertTrue(store.hasSpilled());
+        assertArrayEquals("bazbazbaz".getBytes(), store.get(bazFile));
+        assertArrayEquals("foo".getBytes(), store.get(fooFile));
+        assertArrayEquals("barbar".getBytes(), store.get(barFile));
+        store.close();
+        assertNull(store.get(fooFile));
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+
+    @Test
+    void testPutAgain() throws Exception {
+        File fooFile = new File(tempDir, "Foo.class");
+        File barFile = new File(tempDir, "Bar.class");
+        try (ClassBytesStore store = new ClassBytesStore(6, tempDir)) {
+            store.put(fooFile, "foo".getBytes());
+            store.put(fooFile, "oof".getBytes());
+            // the replaced bytes no longer count toward the memory limit
+            store.put(barFile, "bar".getBytes());
+            assertFalse(store.hasSpilled());
+            assertArrayEquals("oof".getBytes(), store.get(fooFile));
+        }
+    }
+
+}
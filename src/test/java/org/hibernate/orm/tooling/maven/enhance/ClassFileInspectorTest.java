@@ -0,0 +1,144 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.hibernate.engine.spi.ManagedEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.persistence.Entity;
+
+public class ClassFileInspectorTest {
+
+    @TempDir
+    File tempDir;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        File fooFolder = new File(tempDir, "org/foo");
+        fooFolder.mkdirs();
+        Files.writeString(new File(fooFolder, "Bar.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Bar extends Base { " +
+            "    @jakarta.persistence.Id long id; " +
+            "    Baz address; " +
+            "    java.util.Map<String, java.util.List<Service>> services; " +
+            "    public String name; " +
+            "    double weight = 1.5d; " +
+            "}");
+        Files.writeString(new File(fooFolder, "Base.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.MappedSuperclass public class Base<T> { T value; T[] values; }");
+        Files.writeString(new File(fooFolder, "Baz.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Embeddable public class Baz { String street; }");
+        Files.writeString(new File(fooFolder, "Service.java").toPath(),
+            "package org.foo;" +
+            "public class Service { " +
+            "    long total = 42L; " +
+            "    String name(Bar bar) { System.out.println(total); return bar.name; } " +
+            "}");
+        Files.writeString(new File(fooFolder, "Util.java").toPath(),
+            "package org.foo;" +
+            "public class Util { " +
+            "    @jakarta.persistence.Transient String entity = \"jakarta/persistence/Entity\"; " +
+            "    String name(Bar bar) { return String.valueOf(bar); } " +
+            "}");
+        Files.writeString(new File(fooFolder, "Enhanced.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity " +
+            "public abstract class Enhanced implements java.io.Serializable, org.hibernate.engine.spi.ManagedEntity { }");
+        Files.writeString(new File(fooFolder, "Cast.java").toPath(),
+            "package org.foo;" +
+            "public class Cast implements java.io.Serializable { " +
+            "    Object cast(Object o) { return (org.hibernate.engine.spi.ManagedEntity)o; } " +
+            "}");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        URL hibernateUrl = ManagedEntity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath() + File.pathSeparator + new File(hibernateUrl.toURI()).getAbsolutePath(),
+            new File(fooFolder, "Bar.java").getAbsolutePath(),
+            new File(fooFolder, "Base.java").getAbsolutePath(),
+            new File(fooFolder, "Baz.java").getAbsolutePath(),
+            new File(fooFolder, "Service.java").getAbsolutePath(),
+            new File(fooFolder, "Util.java").getAbsolutePath(),
+            new File(fooFolder, "Enhanced.java").getAbsolutePath(),
+            new File(fooFolder, "Cast.java").getAbsolutePath()));
+    }
+
+    @Test
+    void testIsPersistenceType() throws Exception {
+        assertTrue(ClassFileInspector.isPersistenceType(read("Bar")));
+        assertTrue(ClassFileInspector.isPersistenceType(read("Baz")));
+        assertFalse(ClassFileInspector.isPersistenceType(read("Service")));
+        // only the annotation descriptor counts, not other annotations or strings
+        assertFalse(ClassFileInspector.isPersistenceType(read("Util")));
+        // bytes that are not a class file are handed to the enhancer
+        assertTrue(ClassFileInspector.isPersistenceType("foobar".getBytes()));
+        assertTrue(ClassFileInspector.isPersistenceType(Arrays.copyOf(read("Bar"), 20)));
+    }
+
+    @Test
+    void testReferencesFieldsOf() throws Exception {
+        Set<String> persistenceTypes = Set.of("org.foo.Bar");
+        assertTrue(ClassFileInspector.referencesFieldsOf(read("Service"), persistenceTypes::contains));
+        assertFalse(ClassFileInspector.referencesFieldsOf(read("Util"), persistenceTypes::contains));
+        assertFalse(ClassFileInspector.referencesFieldsOf(read("Service"), Set.of("org.foo.Baz")::contains));
+        assertTrue(ClassFileInspector.referencesFieldsOf("foobar".getBytes(), persistenceTypes::contains));
+    }
+
+    @Test
+    void testIsEnhanced() throws Exception {
+        assertTrue(ClassFileInspector.isEnhanced(read("Enhanced")));
+        assertFalse(ClassFileInspector.isEnhanced(read("Bar")));
+        // referring to the interface is not the same as implementing it
+        assertFalse(ClassFileInspector.isEnhanced(read("Cast")));
+        assertFalse(ClassFileInspector.isEnhanced("foobar".getBytes()));
+        assertFalse(ClassFileInspector.isEnhanced(Arrays.copyOf(read("Enhanced"), 20)));
+    }
+
+    @Test
+    void testReferencedTypes() throws Exception {
+        assertEquals(
+            Set.of("org.foo.Base", "org.foo.Baz", "org.foo.Service"),
+            ClassFileInspector.referencedTypes(read("Bar")));
+        // type variables and java classes are left out
+        assertEquals(Set.of(), ClassFileInspector.referencedTypes(read("Base")));
+        assertNull(ClassFileInspector.referencedTypes("foobar".getBytes()));
+        assertNull(ClassFileInspector.referencedTypes(Arrays.copyOf(read("Bar"), 100)));
+    }
+
+    private byte[] read(String simpleName) throws Exception {
+        return Files.readAllBytes(new File(tempDir, "org/foo/" + simpleName + ".class").toPath());
+    }
+
+}
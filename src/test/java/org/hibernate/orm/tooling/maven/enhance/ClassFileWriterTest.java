@@ -0,0 +1,77 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class ClassFileWriterTest {
+
+    @Test
+    void testWritesAreDoneOnClose() {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        ClassFileWriter writer = new ClassFileWriter(2, 4);
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            writer.submit(() -> written.add(index));
+        }
+        writer.close();
+        assertEquals(100, written.size());
+    }
+
+    @Test
+    void testFullQueueRunsOnCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        ClassFileWriter writer = new ClassFileWriter(1, 1);
+        // the writer thread blocks and the queue fills up
+        writer.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.submit(() -> threads.add(Thread.currentThread()));
+        writer.submit(() -> threads.add(Thread.currentThread()));
+        assertEquals(List.of(Thread.currentThread()), threads);
+        release.countDown();
+        writer.close();
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(1).getName().startsWith("hibernate-enhance-writer-"));
+    }
+
+    @Test
+    void testCloseRethrowsFirstFailure() {
+        IllegalStateException first = new IllegalStateException("first");
+        ClassFileWriter writer = new ClassFileWriter(1, 4);
+        writer.submit(() -> { throw first; });
+        writer.submit(() -> { throw new IllegalStateException("second"); });
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, writer::close);
+        assertSame(first, thrown);
+        assertEquals(1, thrown.getSuppressed().length);
+    }
+
+}
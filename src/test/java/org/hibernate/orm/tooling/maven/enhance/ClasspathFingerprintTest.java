@@ -0,0 +1,89 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClasspathFingerprintTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testOfArchives() throws Exception {
+        File fooJar = new File(tempDir, "first/foo.jar");
+        File copiedJar = new File(tempDir, "second/foo.jar");
+        writeJar(fooJar, "foo");
+        fooJar.setLastModified(1000);
+        String fingerprint = ClasspathFingerprint.ofArchives(List.of(fooJar));
+        // the same JAR elsewhere and with another modification time
+        copiedJar.getParentFile().mkdirs();
+        Files.copy(fooJar.toPath(), copiedJar.toPath());
+        copiedJar.setLastModified(2000);
+        assertEquals(fingerprint, ClasspathFingerprint.ofArchives(List.of(copiedJar)));
+        // other content of the same size
+        writeJar(fooJar, "bar");
+        fooJar.setLastModified(3000);
+        assertEquals(Files.size(copiedJar.toPath()), Files.size(fooJar.toPath()));
+        assertNotEquals(fingerprint, ClasspathFingerprint.ofArchives(List.of(fooJar)));
+        // files that are not archives are hashed as a whole
+        File notAnArchive = new File(tempDir, "foo.txt");
+        Files.writeString(notAnArchive.toPath(), "foo");
+        assertEquals(
+            "foo.txt:" + EnhancementManifest.hash("foo".getBytes()) + ";",
+            ClasspathFingerprint.ofArchives(List.of(notAnArchive)));
+    }
+
+    @Test
+    void testOfDirectories() throws Exception {
+        File classesFolder = new File(tempDir, "classes");
+        File fooClassFile = new File(classesFolder, "org/foo/Foo.class");
+        fooClassFile.getParentFile().mkdirs();
+        Files.writeString(fooClassFile.toPath(), "foo");
+        fooClassFile.setLastModified(1000);
+        File missingFolder = new File(tempDir, "missing");
+        assertEquals(
+            classesFolder.getAbsolutePath() + ":1:1000;" + missingFolder.getAbsolutePath() + ":0:0;",
+            ClasspathFingerprint.ofDirectories(List.of(classesFolder, missingFolder)));
+        // an added class, a recompiled class
+        File barClassFile = new File(classesFolder, "org/foo/Bar.class");
+        Files.writeString(barClassFile.toPath(), "bar");
+        barClassFile.setLastModified(500);
+        assertEquals(classesFolder.getAbsolutePath() + ":2:1000;", ClasspathFingerprint.ofDirectories(List.of(classesFolder)));
+        barClassFile.setLastModified(2000);
+        assertEquals(classesFolder.getAbsolutePath() + ":2:2000;", ClasspathFingerprint.ofDirectories(List.of(classesFolder)));
+    }
+
+    private static void writeJar(File jar, String content) throws Exception {
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new ZipEntry("org/foo/Foo.class"));
+            out.write(content.getBytes());
+            out.closeEntry();
+        }
+    }
+
+}
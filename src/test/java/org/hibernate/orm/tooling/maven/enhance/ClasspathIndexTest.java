@@ -0,0 +1,129 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClasspathIndexTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testLocate() throws Exception {
+        File fooJar = new File(tempDir, "foo.jar");
+        File barJar = new File(tempDir, "bar.jar");
+        writeJar(fooJar, "org/foo/Foo.class", "foo", "org/foo/Stored.class", "stored", "org/foo/foo.txt", "text");
+        writeJar(barJar, "org/foo/Foo.class", "shadowed", "org/bar/Bar.class", "bar", "META-INF/versions/11/org/bar/Bar.class", "versioned");
+        File indexDirectory = new File(tempDir, "index");
+        try (ClasspathIndex index = ClasspathIndex.open(indexDirectory, List.of(fooJar, barJar))) {
+            assertEquals(3, index.size());
+            assertArrayEquals("foo".getBytes(), index.locate("org.foo.Foo").resolve());
+            assertArrayEquals("stored".getBytes(), index.locate("org.foo.Stored").resolve());
+            assertArrayEquals("bar".getBytes(), index.locate("org.bar.Bar").resolve());
+            assertFalse(index.locate("org.foo.Missing").isResolved());
+            assertFalse(index.locate("org.foo.foo").isResolved());
+            assertFalse(index.locate("").isResolved());
+        }
+    }
+
+    @Test
+    void testIndexIsSharedUntilAJarChanges() throws Exception {
+        File fooJar = new File(tempDir, "foo.jar");
+        writeJar(fooJar, "org/foo/Foo.class", "foo");
+        File indexDirectory = new File(tempDir, "index");
+        File indexFile;
+        try (ClasspathIndex index = ClasspathIndex.open(indexDirectory, List.of(fooJar))) {
+            indexFile = index.getFile();
+            assertTrue(indexFile.getName().startsWith(ClasspathIndex.FILE_PREFIX));
+            assertTrue(indexFile.getName().endsWith(ClasspathIndex.FILE_SUFFIX));
+        }
+        indexFile.setLastModified(1000);
+        try (ClasspathIndex index = ClasspathIndex.open(indexDirectory, List.of(fooJar))) {
+            // reusing the index counts as an access for eviction
+            assertEquals(indexFile, index.getFile());
+            assertTrue(indexFile.lastModified() > 1000);
+        }
+        writeJar(fooJar, "org/foo/Foo.class", "changed", "org/foo/Bar.class", "bar");
+        try (ClasspathIndex index = ClasspathIndex.open(indexDirectory, List.of(fooJar))) {
+            assertNotEquals(indexFile, index.getFile());
+            assertEquals(2, index.size());
+            assertArrayEquals("changed".getBytes(), index.locate("org.foo.Foo").resolve());
+        }
+        assertEquals(2, indexDirectory.list().length);
+    }
+
+    @Test
+    void testOpenIndexIsNotEvicted() throws Exception {
+        File fooJar = new File(tempDir, "foo.jar");
+        writeJar(fooJar, "org/foo/Foo.class", "foo");
+        File cacheDirectory = new File(tempDir, "cache");
+        EnhancementCache cache = new EnhancementCache(cacheDirectory, "foo", 0);
+        File indexDirectory = new File(cacheDirectory, EnhancementCache.CLASSPATH_INDEX_DIRECTORY);
+        File indexFile;
+        try (ClasspathIndex index = ClasspathIndex.open(indexDirectory, List.of(fooJar))) {
+            indexFile = index.getFile();
+            assertEquals(0, cache.evict());
+            assertTrue(indexFile.isFile());
+        }
+        assertEquals(1, cache.evict());
+        assertFalse(indexFile.exists());
+    }
+
+    @Test
+    void testOpenFailsForInvalidArchive() throws Exception {
+        File fooJar = new File(tempDir, "foo.jar");
+        Files.writeString(fooJar.toPath(), "not an archive");
+        assertThrows(IOException.class, () -> ClasspathIndex.open(new File(tempDir, "index"), List.of(fooJar)));
+    }
+
+    private static void writeJar(File jar, String... namesAndContents) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] bytes = namesAndContents[i + 1].getBytes();
+                ZipEntry entry = new ZipEntry(namesAndContents[i]);
+                if (namesAndContents[i].contains("Stored")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(bytes.length);
+                    entry.setCompressedSize(bytes.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(bytes);
+            }
+        }
+    }
+
+}
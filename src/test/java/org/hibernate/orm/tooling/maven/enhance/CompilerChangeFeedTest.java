@@ -0,0 +1,128 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CompilerChangeFeedTest {
+
+    @TempDir
+    File tempDir;
+
+    private File classesDirectory;
+    private File stateDirectory;
+    private File createdFiles;
+    private File barClassFile;
+    private File bazClassFile;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        classesDirectory = new File(tempDir, "classes");
+        stateDirectory = new File(tempDir, "state");
+        createdFiles = new File(tempDir, "createdFiles.lst");
+        barClassFile = new File(classesDirectory, "org/foo/Bar.class");
+        bazClassFile = new File(classesDirectory, "org/foo/Baz.class");
+        barClassFile.getParentFile().mkdirs();
+        barClassFile.createNewFile();
+        bazClassFile.createNewFile();
+    }
+
+    @Test
+    void testRead() throws Exception {
+        CompilerChangeFeed feed = new CompilerChangeFeed(createdFiles, classesDirectory, stateDirectory, "foo");
+        // nothing to go by without the list
+        assertNull(feed.read());
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class", "org/foo/Baz.class"));
+        // nor without the marker of a previous run
+        assertNull(feed.read());
+        feed.markConsumed();
+        assertTrue(new File(stateDirectory, CompilerChangeFeed.MARKER_FILE_NAME).isFile());
+        // the compiler did not run since
+        assertTrue(feed.read().isEmpty());
+        // the compiler rewrote the list, absolute paths are accepted as well
+        Files.write(createdFiles.toPath(), List.of(barClassFile.getAbsolutePath(), ""));
+        createdFiles.setLastModified(createdFiles.lastModified() + 2000);
+        assertEquals(List.of(barClassFile.getAbsoluteFile()), feed.read());
+        // a different configuration invalidates the marker
+        assertNull(new CompilerChangeFeed(createdFiles, classesDirectory, stateDirectory, "bar").read());
+    }
+
+    @Test
+    void testReadOverwrittenList() throws Exception {
+        CompilerChangeFeed feed = new CompilerChangeFeed(createdFiles, classesDirectory, stateDirectory, "foo");
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class"));
+        feed.markConsumed();
+        long consumed = new File(stateDirectory, CompilerChangeFeed.MARKER_FILE_NAME).lastModified();
+        // a first compilation created both class files, a second one only lists its own
+        barClassFile.setLastModified(consumed + 2000);
+        bazClassFile.setLastModified(consumed + 2000);
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class", ""));
+        createdFiles.setLastModified(createdFiles.lastModified() + 2000);
+        assertNull(feed.read());
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class", "org/foo/Baz.class"));
+        assertEquals(List.of(barClassFile.getAbsoluteFile(), bazClassFile.getAbsoluteFile()), feed.read());
+        // a class file created while the list stayed the same
+        feed.markConsumed();
+        consumed = new File(stateDirectory, CompilerChangeFeed.MARKER_FILE_NAME).lastModified();
+        bazClassFile.setLastModified(consumed + 2000);
+        bazClassFile.getParentFile().setLastModified(consumed + 2000);
+        assertNull(feed.read());
+    }
+
+    @Test
+    void testReadLooksAtModifiedDirectoriesOnly() throws Exception {
+        CompilerChangeFeed feed = new CompilerChangeFeed(createdFiles, classesDirectory, stateDirectory, "foo");
+        File otherClassFile = new File(classesDirectory, "org/bar/Other.class");
+        otherClassFile.getParentFile().mkdirs();
+        otherClassFile.createNewFile();
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class"));
+        feed.markConsumed();
+        long consumed = new File(stateDirectory, CompilerChangeFeed.MARKER_FILE_NAME).lastModified();
+        otherClassFile.getParentFile().setLastModified(consumed - 2000);
+        // overwritten in place, the directory of the class file stays the same
+        otherClassFile.setLastModified(consumed + 2000);
+        assertEquals(List.of(), feed.read());
+        // created anew, the directory is modified as well
+        otherClassFile.getParentFile().setLastModified(consumed + 2000);
+        assertNull(feed.read());
+    }
+
+    @Test
+    void testReadInconsistent() throws Exception {
+        CompilerChangeFeed feed = new CompilerChangeFeed(createdFiles, classesDirectory, stateDirectory, "foo");
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class"));
+        feed.markConsumed();
+        createdFiles.setLastModified(createdFiles.lastModified() + 2000);
+        Files.write(createdFiles.toPath(), List.of("org/foo/Missing.class"));
+        assertNull(feed.read());
+        Files.write(createdFiles.toPath(), List.of("../Outside.class"));
+        new File(tempDir, "Outside.class").createNewFile();
+        assertNull(feed.read());
+        Files.write(createdFiles.toPath(), List.of());
+        assertNull(feed.read());
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DependencyStatesTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testDescribe() throws Exception {
+        File classesFolder = new File(tempDir, "classes");
+        File siblingFolder = new File(tempDir, "sibling");
+        compile(siblingFolder, "Address", "public class Address { private String street; }");
+        compile(siblingFolder, "Base", "public class Base { private Address address; }", "-cp", siblingFolder.getAbsolutePath());
+        compile(classesFolder, "Sub", "public class Sub extends Base { private Sub parent; }", "-cp", siblingFolder.getAbsolutePath());
+        byte[] subBytes = Files.readAllBytes(new File(classesFolder, "org/foo/Sub.class").toPath());
+        File baseClassFile = new File(siblingFolder, "org/foo/Base.class");
+        File addressClassFile = new File(siblingFolder, "org/foo/Address.class");
+        DependencyStates states = new DependencyStates(List.of(classesFolder, siblingFolder));
+        states.register("org.foo.Sub", "registered".getBytes());
+        // the super class and the type of its field are read from the sibling folder
+        assertEquals(
+            "org.foo.Address=" + EnhancementManifest.hash(Files.readAllBytes(addressClassFile.toPath())) + ";" +
+            "org.foo.Base=" + EnhancementManifest.hash(Files.readAllBytes(baseClassFile.toPath())) + ";" +
+            "org.foo.Sub=" + EnhancementManifest.hash("registered".getBytes()) + ";",
+            states.describe(subBytes));
+        // a change of a transitive dependency changes the description
+        String description = new DependencyStates(List.of(classesFolder, siblingFolder)).describe(subBytes);
+        compile(siblingFolder, "Address", "public class Address { private String city; }");
+        assertNotEquals(description, new DependencyStates(List.of(classesFolder, siblingFolder)).describe(subBytes));
+        // types that are not found in the class directories are left out
+        assertEquals("", new DependencyStates(List.of(classesFolder)).describe(Files.readAllBytes(baseClassFile.toPath())));
+    }
+
+    private static void compile(File folder, String className, String body, String... options) throws Exception {
+        File sourceFolder = new File(folder, "org/foo");
+        sourceFolder.mkdirs();
+        File javaFile = new File(sourceFolder, className + ".java");
+        Files.writeString(javaFile.toPath(), "package org.foo; " + body);
+        String[] arguments = new String[options.length + 1];
+        System.arraycopy(options, 0, arguments, 0, options.length);
+        arguments[options.length] = javaFile.getAbsolutePath();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, arguments));
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.persistence.metamodel.Type.PersistenceType;
+
+public class DiscoveryRecordsTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testStoreAndReplay() throws Exception {
+        DiscoveryRecords records = DiscoveryRecords.load(tempDir, "foo");
+        assertNull(records.replay("org.foo.Bar", "bar".getBytes()));
+        records.discovered("org.foo.Bar", Map.of(
+            "org.foo.Bar", PersistenceType.ENTITY));
+        records.discovered("org.foo.Baz", Map.of());
+        // the records are keyed by the bytes left on disk
+        records.complete("org.foo.Bar", "enhanced bar".getBytes());
+        records.complete("org.foo.Baz", "baz".getBytes());
+        records.store();
+        assertTrue(records.getFile().isFile());
+        records = DiscoveryRecords.load(tempDir, "foo");
+        assertNull(records.replay("org.foo.Bar", "bar".getBytes()));
+        assertEquals(Map.of("org.foo.Bar", PersistenceType.ENTITY), records.replay("org.foo.Bar", "enhanced bar".getBytes()));
+        // classes without discovered types are not recorded
+        assertNull(records.replay("org.foo.Baz", "baz".getBytes()));
+        assertEquals(1, records.getReplayed());
+        assertEquals(1, records.getPreviousTypes().size());
+    }
+
+    @Test
+    void testRetainPrevious() throws Exception {
+        DiscoveryRecords records = DiscoveryRecords.load(tempDir, "foo");
+        records.discovered("org.foo.Bar", Map.of("org.foo.Bar", PersistenceType.ENTITY));
+        records.complete("org.foo.Bar", "bar".getBytes());
+        records.store();
+        records = DiscoveryRecords.load(tempDir, "foo");
+        records.store();
+        assertTrue(DiscoveryRecords.load(tempDir, "foo").getPreviousTypes().isEmpty());
+        records.retainPrevious();
+        records.store();
+        assertEquals(1, DiscoveryRecords.load(tempDir, "foo").getPreviousTypes().size());
+    }
+
+    @Test
+    void testRetainPreviousDropsScannedClasses() throws Exception {
+        DiscoveryRecords records = DiscoveryRecords.load(tempDir, "foo");
+        records.discovered("org.foo.Bar", Map.of("org.foo.Bar", PersistenceType.EMBEDDABLE));
+        records.complete("org.foo.Bar", "bar".getBytes());
+        records.store();
+        // the class no longer holds any persistence types
+        records = DiscoveryRecords.load(tempDir, "foo");
+        records.scanned("org.foo.Bar");
+        records.retainPrevious();
+        records.store();
+        assertTrue(DiscoveryRecords.load(tempDir, "foo").getPreviousTypes().isEmpty());
+    }
+
+    @Test
+    void testFingerprintMismatch() throws Exception {
+        DiscoveryRecords records = DiscoveryRecords.load(tempDir, "foo");
+        records.discovered("org.foo.Bar", Map.of("org.foo.Bar", PersistenceType.ENTITY));
+        records.complete("org.foo.Bar", "bar".getBytes());
+        records.store();
+        records = DiscoveryRecords.load(tempDir, "bar");
+        assertNull(records.replay("org.foo.Bar", "bar".getBytes()));
+    }
+
+    @Test
+    void testCorruptRecords() throws Exception {
+        DiscoveryRecords records = DiscoveryRecords.load(tempDir, "foo");
+        records.discovered("org.foo.Bar", Map.of("org.foo.Bar", PersistenceType.ENTITY));
+        records.complete("org.foo.Bar", "bar".getBytes());
+        records.store();
+        byte[] bytes = Files.readAllBytes(records.getFile().toPath());
+        Files.write(records.getFile().toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+        assertThrows(IOException.class, () -> DiscoveryRecords.load(tempDir, "foo"));
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.model.fileset.FileSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+
+/**
+ * Compares the sequential and the parallel code paths of the enhance mojo on a
+ * generated corpus of entity classes, and the sequential path against workers
+ * overlapping their file system operations on a larger corpus. Run with:
+ * <pre>
+ * mvn test -Dtest=EnhanceMojoBenchmarkTest -Dhibernate.enhance.benchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "hibernate.enhance.benchmark", matches = "true")
+public class EnhanceMojoBenchmarkTest {
+
+    static final int AMOUNT_OF_CLASSES = Integer.getInteger("hibernate.enhance.benchmark.classes", 5000);
+    static final int AMOUNT_OF_IO_CLASSES = Integer.getInteger("hibernate.enhance.benchmark.ioClasses", 50000);
+    static final int IO_THREADS = Integer.getInteger("hibernate.enhance.benchmark.ioThreads", 16);
+    static final int THREADS = Integer.getInteger("hibernate.enhance.benchmark.threads", Runtime.getRuntime().availableProcessors());
+    static final int ROUNDS = 5;
+
+    @TempDir
+    File tempDir;
+
+    private File classesDirectory;
+    private List<File> sourceSet;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        classesDirectory = new File(tempDir, "classes");
+        sourceSet = generateEntities(classesDirectory, AMOUNT_OF_CLASSES);
+    }
+
+    @Test
+    void benchmarkDiscoverTypes() throws Exception {
+        // warm up both code paths before measuring
+        discoverTypes(1);
+        discoverTypes(THREADS);
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            sequential = Math.min(sequential, discoverTypes(1));
+            parallel = Math.min(parallel, discoverTypes(THREADS));
+        }
+        System.out.printf(
+            "Type discovery of %s classes: sequential %s ms, parallel (%s threads) %s ms, speedup %.2fx%n",
+            sourceSet.size(), sequential, THREADS, parallel, (double)sequential / parallel);
+    }
+
+    @Test
+    void benchmarkIo() throws Exception {
+        File ioClassesDirectory = new File(tempDir, "io");
+        List<File> ioSourceSet = generateEntities(ioClassesDirectory, AMOUNT_OF_IO_CLASSES);
+        // warm up both code paths before measuring
+        discoverAndEnhance(ioClassesDirectory, 1, 0);
+        discoverAndEnhance(ioClassesDirectory, THREADS, IO_THREADS);
+        long sequential = Long.MAX_VALUE;
+        long overlapping = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            sequential = Math.min(sequential, discoverAndEnhance(ioClassesDirectory, 1, 0));
+            overlapping = Math.min(overlapping, discoverAndEnhance(ioClassesDirectory, THREADS, IO_THREADS));
+        }
+        System.out.printf(
+            "Discovery and enhancement of %s classes: sequential %s ms, %s threads with %s I/O workers %s ms, speedup %.2fx%n",
+            ioSourceSet.size(), sequential, THREADS, IO_THREADS, overlapping, (double)sequential / overlapping);
+    }
+
+    /**
+     * Reads, enhances and writes every class to a fresh output directory, so
+     * that each round finds the classes unenhanced.
+     */
+    private long discoverAndEnhance(File directory, int threads, int ioThreads) throws Exception {
+        EnhanceMojo enhanceMojo = createMojo(directory, threads);
+        set(enhanceMojo, "ioThreads", ioThreads);
+        set(enhanceMojo, "outputDirectory", Files.createTempDirectory(tempDir.toPath(), "out").toFile());
+        invoke(enhanceMojo, "createEnhancer");
+        long start = System.nanoTime();
+        invoke(enhanceMojo, "assembleSourceSetAndDiscoverTypes");
+        invoke(enhanceMojo, "performEnhancement");
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private long discoverTypes(int threads) throws Exception {
+        EnhanceMojo enhanceMojo = createMojo(classesDirectory, threads);
+        invoke(enhanceMojo, "createEnhancer");
+        long start = System.nanoTime();
+        invoke(enhanceMojo, "assembleSourceSetAndDiscoverTypes");
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private EnhanceMojo createMojo(File directory, int threads) throws Exception {
+        EnhanceMojo enhanceMojo = new EnhanceMojo();
+        enhanceMojo.setLog(createSilentLog());
+        set(enhanceMojo, "classesDirectory", directory);
+        FileSet fileSet = new FileSet();
+        fileSet.setDirectory(directory.getAbsolutePath());
+        set(enhanceMojo, "fileSets", new FileSet[] { fileSet });
+        set(enhanceMojo, "threads", threads);
+        return enhanceMojo;
+    }
+
+    static List<File> generateEntities(File classesDirectory, int amount) throws Exception {
+        List<File> classFiles = new ArrayList<File>();
+        File packageFolder = new File(classesDirectory, "org/foo");
+        packageFolder.mkdirs();
+        ByteBuddy byteBuddy = new ByteBuddy();
+        for (int i = 0; i < amount; i++) {
+            byte[] bytes = byteBuddy
+                .subclass(Object.class)
+                .name("org.foo.Entity" + i)
+                .annotateType(AnnotationDescription.Builder.ofType(Entity.class).build())
+                .defineField("id", Long.class, Modifier.PRIVATE)
+                    .annotateField(AnnotationDescription.Builder.ofType(Id.class).build())
+                .defineField("name", String.class, Modifier.PRIVATE)
+                .defineField("description", String.class, Modifier.PRIVATE)
+                .make()
+                .getBytes();
+            File classFile = new File(packageFolder, "Entity" + i + ".class");
+            Files.write(classFile.toPath(), bytes);
+            classFiles.add(classFile);
+        }
+        return classFiles;
+    }
+
+    static Log createSilentLog() {
+        return (Log)Proxy.newProxyInstance(
+            EnhanceMojoBenchmarkTest.class.getClassLoader(),
+            new Class[] { Log.class },
+            (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+    }
+
+    static void set(Object target, String fieldName, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    static void invoke(Object target, String methodName) throws Exception {
+        Method method = target.getClass().getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        method.invoke(target);
+    }
+
+}
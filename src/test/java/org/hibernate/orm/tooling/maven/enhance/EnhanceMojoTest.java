@@ -15,11 +15,13 @@
  */
 package org.hibernate.orm.tooling.maven.enhance;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -31,8 +33,17 @@ import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import javax.tools.JavaCompiler;
 import javax.tools.ToolProvider;
@@ -53,7 +64,7 @@ public class EnhanceMojoTest {
     @TempDir
     File tempDir;
 
-    private List<String> logMessages = new ArrayList<String>();
+    private List<String> logMessages = Collections.synchronizedList(new ArrayList<String>());
  
     private Field classesDirectoryField;
     private Field fileSetsField;
@@ -119,6 +130,59 @@ public class EnhanceMojoTest {
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_ASSEMBLY_OF_SOURCESET));
     }
 
+    @Test
+    void testAssembleSourceSetFromChangeFeed() throws Exception {
+        Method assembleSourceSetMethod = EnhanceMojo.class.getDeclaredMethod("assembleSourceSet");
+        assembleSourceSetMethod.setAccessible(true);
+        Method markChangeFeedConsumedMethod = EnhanceMojo.class.getDeclaredMethod("markChangeFeedConsumed");
+        markChangeFeedConsumedMethod.setAccessible(true);
+        File bazClassFile = new File(fooFolder, "Baz.class");
+        bazClassFile.createNewFile();
+        File createdFiles = new File(tempDir, "createdFiles.lst");
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class", "org/foo/Baz.class"));
+        FileSet[] fileSets = new FileSet[1];
+        fileSets[0] = new FileSet();
+        fileSets[0].setDirectory(classesDirectory.getAbsolutePath());
+        fileSets[0].addExclude("**/Baz.class");
+        fileSetsField.set(enhanceMojo, fileSets);
+        Field useCompilerChangeFeedField = EnhanceMojo.class.getDeclaredField("useCompilerChangeFeed");
+        useCompilerChangeFeedField.setAccessible(true);
+        useCompilerChangeFeedField.set(enhanceMojo, true);
+        Field createdFilesListField = EnhanceMojo.class.getDeclaredField("createdFilesList");
+        createdFilesListField.setAccessible(true);
+        createdFilesListField.set(enhanceMojo, createdFiles);
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        stateDirectoryField.set(enhanceMojo, new File(tempDir, "state"));
+        // the first run scans all files
+        assembleSourceSetMethod.invoke(enhanceMojo);
+        markChangeFeedConsumedMethod.invoke(enhanceMojo);
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.COMPILER_CHANGE_FEED_NOT_USABLE.formatted(createdFiles)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.SKIPPING_NON_CLASS_FILE.formatted(fooTxtFile)));
+        assertEquals(List.of(barClassFile), sourceSetField.get(enhanceMojo));
+        // the compiler did not run since
+        sourceSetField.set(enhanceMojo, new ArrayList<File>());
+        logMessages.clear();
+        assembleSourceSetMethod.invoke(enhanceMojo);
+        assertTrue(((List<?>)sourceSetField.get(enhanceMojo)).isEmpty());
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.USING_COMPILER_CHANGE_FEED.formatted(0, createdFiles)));
+        // the compiler created both class files, the file set still applies
+        Files.write(createdFiles.toPath(), List.of("org/foo/Bar.class", "org/foo/Baz.class", ""));
+        createdFiles.setLastModified(createdFiles.lastModified() + 2000);
+        logMessages.clear();
+        assembleSourceSetMethod.invoke(enhanceMojo);
+        assertEquals(List.of(barClassFile), sourceSetField.get(enhanceMojo));
+        // verify the log messages
+        assertEquals(7, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_ASSEMBLY_OF_SOURCESET));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.USING_COMPILER_CHANGE_FEED.formatted(2, createdFiles)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.PROCESSING_FILE_SET));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.USING_BASE_DIRECTORY.formatted(classesDirectory)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.ADDED_FILE_TO_SOURCE_SET.formatted(barClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.FILESET_PROCESSED_SUCCESFULLY));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_ASSEMBLY_OF_SOURCESET));
+    }
+
     @Test
     void testAddFileSetToSourceSet() throws Exception {
         Method addFileSetToSourceSetMethod = EnhanceMojo.class.getDeclaredMethod(
@@ -163,6 +227,52 @@ public class EnhanceMojoTest {
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CREATE_URL_CLASSLOADER_FOR_FOLDER.formatted(classesDirectory)));
     }
 
+    @Test
+    void testCreateClassLoaderWithClasspathElements() throws Exception {
+        File libFolder = new File(tempDir, "lib");
+        File libTxtFile = new File(libFolder, "org/lib/Lib.txt");
+        libTxtFile.getParentFile().mkdirs();
+        libTxtFile.createNewFile();
+        Field classpathElementsField = EnhanceMojo.class.getDeclaredField("classpathElements");
+        classpathElementsField.setAccessible(true);
+        classpathElementsField.set(enhanceMojo, List.of(
+            classesDirectory.getAbsolutePath(),
+            libFolder.getAbsolutePath(),
+            new File(tempDir, "missing.jar").getAbsolutePath()));
+        Method createClassLoaderMethod = EnhanceMojo.class.getDeclaredMethod("createClassLoader");
+        createClassLoaderMethod.setAccessible(true);
+        URLClassLoader classLoader = (URLClassLoader)createClassLoaderMethod.invoke(enhanceMojo);
+        // the classes directory is not added twice and missing elements are left out
+        assertArrayEquals(
+            new URL[] { classesDirectory.toURI().toURL(), libFolder.toURI().toURL() },
+            classLoader.getURLs());
+        assertEquals(libTxtFile.toURI().toURL(), classLoader.getResource("org/lib/Lib.txt"));
+        assertEquals(fooTxtFile.toURI().toURL(), classLoader.getResource("bar/Foo.txt"));
+        classLoader.close();
+    }
+
+    @Test
+    void testCloseClassLoader() throws Exception {
+        Method getEnhancementContextMethod = EnhanceMojo.class.getDeclaredMethod("getEnhancementContext");
+        getEnhancementContextMethod.setAccessible(true);
+        Method closeClassLoaderMethod = EnhanceMojo.class.getDeclaredMethod("closeClassLoader");
+        closeClassLoaderMethod.setAccessible(true);
+        // nothing to close before an enhancement context was created
+        closeClassLoaderMethod.invoke(enhanceMojo);
+        assertTrue(logMessages.isEmpty());
+        EnhancementContext enhancementContext = (EnhancementContext)getEnhancementContextMethod.invoke(enhanceMojo);
+        ClassLoader classLoader = enhancementContext.getLoadingClassLoader();
+        assertNull(classLoader.getResource("org/foo/Missing.class"));
+        assertNull(classLoader.getResource("org/foo/Missing.class"));
+        assertNotNull(classLoader.getResource("bar/Foo.txt"));
+        logMessages.clear();
+        closeClassLoaderMethod.invoke(enhanceMojo);
+        assertEquals(1, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLOSING_CLASSLOADER.formatted(1)));
+        // a closed loader no longer finds resources
+        assertNull(classLoader.getResource("org/foo/Bar.class"));
+    }
+
     @Test
     void testCreateEnhancementContext() throws Exception {
         Method createEnhancementContextMethod = EnhanceMojo.class.getDeclaredMethod("createEnhancementContext");
@@ -316,12 +426,12 @@ public class EnhanceMojoTest {
     }
 
     @Test
-    void testDiscoverTypes() throws Exception {
+    void testAssembleSourceSetAndDiscoverTypes() throws Exception {
         final List<Boolean> hasRun = new ArrayList<Boolean>();
-        Method discoverTypesMethod = EnhanceMojo.class.getDeclaredMethod(
-            "discoverTypes", 
+        Method assembleSourceSetAndDiscoverTypesMethod = EnhanceMojo.class.getDeclaredMethod(
+            "assembleSourceSetAndDiscoverTypes", 
             new Class[] { });
-        discoverTypesMethod.setAccessible(true);
+        assembleSourceSetAndDiscoverTypesMethod.setAccessible(true);
         Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
             getClass().getClassLoader(), 
             new Class[] { Enhancer.class }, 
@@ -336,55 +446,38 @@ public class EnhanceMojoTest {
                  }               
             });
         enhancerField.set(enhanceMojo, enhancer);
-        assertFalse(hasRun.contains(true));
-        discoverTypesMethod.invoke(enhanceMojo);
+        File emptyFolder = new File(tempDir, "empty");
+        emptyFolder.mkdirs();
+        FileSet[] fileSets = new FileSet[1];
+        fileSets[0] = new FileSet();
+        fileSets[0].setDirectory(emptyFolder.getAbsolutePath());
+        fileSetsField.set(enhanceMojo, fileSets);
+        assembleSourceSetAndDiscoverTypesMethod.invoke(enhanceMojo);
         assertFalse(hasRun.contains(true));
         // verify the log messages
-        assertEquals(2, logMessages.size());
+        assertEquals(7, logMessages.size());
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_TYPE_DISCOVERY));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_ASSEMBLY_OF_SOURCESET));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_ASSEMBLY_OF_SOURCESET));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_TYPE_DISCOVERY));
         logMessages.clear();
-        List<File> sourceSet = new ArrayList<File>();
-        sourceSet.add(barClassFile);
-        sourceSetField.set(enhanceMojo, sourceSet);
-        discoverTypesMethod.invoke(enhanceMojo);
+        // every class file is discovered as soon as it is added to the source set
+        fileSets[0].setDirectory(classesDirectory.getAbsolutePath());
+        assembleSourceSetAndDiscoverTypesMethod.invoke(enhanceMojo);
         assertTrue(hasRun.contains(true));
+        assertEquals(List.of(barClassFile), sourceSetField.get(enhanceMojo));
         // verify the log messages
-        assertEquals(5, logMessages.size());
+        assertEquals(12, logMessages.size());
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_TYPE_DISCOVERY));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.ADDED_FILE_TO_SOURCE_SET.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_DISCOVER_TYPES_FOR_CLASS_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_DISCOVERED_TYPES_FOR_CLASS_FILE.formatted(barClassFile)));        
+        assertTrue(logMessages.indexOf(INFO + EnhanceMojo.SUCCESFULLY_DISCOVERED_TYPES_FOR_CLASS_FILE.formatted(barClassFile))
+            < logMessages.indexOf(DEBUG + EnhanceMojo.ENDING_ASSEMBLY_OF_SOURCESET));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_TYPE_DISCOVERY));        
     }
 
-    @Test
-    void testClearFile() throws Exception {
-        Method clearFileMethod = EnhanceMojo.class.getDeclaredMethod(
-            "clearFile", 
-            new Class[] { File.class });
-        clearFileMethod.setAccessible(true);
-        Files.writeString(fooTxtFile.toPath(), "foobar");
-        fooTxtFile.setLastModified(0);
-        assertEquals("foobar", new String(Files.readAllBytes(fooTxtFile.toPath())));
-        boolean result = (boolean)clearFileMethod.invoke(enhanceMojo, new File("foobar"));
-        assertFalse(result);
-        result = (boolean)clearFileMethod.invoke(enhanceMojo, fooTxtFile);
-        long modified = fooTxtFile.lastModified();
-        assertTrue(result);
-        // File should be empty
-        assertTrue(Files.readAllBytes(fooTxtFile.toPath()).length == 0);
-        // last modification 'after' should be after 'before'
-        assertNotEquals(0, modified);
-        assertTrue(modified > 0);
-        // check log messages
-        assertEquals(4, logMessages.size());
-        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_CLEAR_FILE.formatted("foobar")));
-        assertTrue(logMessages.contains(ERROR + EnhanceMojo.UNABLE_TO_DELETE_FILE.formatted("foobar")));
-        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_CLEAR_FILE.formatted(fooTxtFile)));
-        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_CLEARED_FILE.formatted(fooTxtFile)));
-    }
-
     @Test
     void testWriteByteCodeToFile() throws Exception {
         Method writeByteCodeToFileMethod = EnhanceMojo.class.getDeclaredMethod(
@@ -401,12 +494,20 @@ public class EnhanceMojoTest {
         assertTrue(modified > 0);
         // File should be contain 'foobar'
         assertEquals(new String(Files.readAllBytes(fooTxtFile.toPath())), "foobar");
+        // no temporary file is left behind
+        assertFalse(new File(barFolder, fooTxtFile.getName() + EnhanceMojo.TEMP_FILE_SUFFIX).exists());
+        assertEquals(1, barFolder.listFiles().length);
         // check log messages
-        assertEquals(4, logMessages.size());
+        assertEquals(2, logMessages.size());
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.WRITING_BYTE_CODE_TO_FILE.formatted(fooTxtFile)));
-        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_CLEAR_FILE.formatted(fooTxtFile)));
-        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_CLEARED_FILE.formatted(fooTxtFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.AMOUNT_BYTES_WRITTEN_TO_FILE.formatted(6, fooTxtFile)));
+        // writing into a missing folder fails without creating the file
+        logMessages.clear();
+        File missingFile = new File(tempDir, "missing/Foo.class");
+        writeByteCodeToFileMethod.invoke(enhanceMojo, "foobar".getBytes(), missingFile);
+        assertFalse(missingFile.exists());
+        assertEquals(2, logMessages.size());
+        assertTrue(logMessages.contains(ERROR + EnhanceMojo.ERROR_WRITING_BYTES_TO_FILE.formatted(missingFile)));
     }
 
     @Test
@@ -446,12 +547,10 @@ public class EnhanceMojoTest {
         assertTrue(afterFirstRun >= beforeRuns);
         assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
        // verify log messages 
-        assertEquals(7, logMessages.size());
+        assertEquals(5, logMessages.size());
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_ENHANCE_CLASS_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.WRITING_BYTE_CODE_TO_FILE.formatted(barClassFile)));
-        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_CLEAR_FILE.formatted(barClassFile)));
-        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_CLEARED_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.AMOUNT_BYTES_WRITTEN_TO_FILE.formatted("foobar".length(), barClassFile)));
         assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(barClassFile)));
         // Second Run -> file is not modified
@@ -484,6 +583,325 @@ public class EnhanceMojoTest {
         }
     }
 
+    @Test
+    void testEnhanceClassWithIdenticalBytes() throws Exception {
+        Method enhanceClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "enhanceClass",
+            new Class[] { File.class });
+        enhanceClassMethod.setAccessible(true);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    return "foobar".getBytes();
+                 }
+            });
+        enhancerField.set(enhanceMojo, enhancer);
+        Files.writeString(barClassFile.toPath(), "foobar");
+        barClassFile.setLastModified(0);
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        // the file was not rewritten
+        assertEquals(0, barClassFile.lastModified());
+        assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
+        // verify log messages
+        assertEquals(3, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_ENHANCE_CLASS_FILE.formatted(barClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(barClassFile)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_UNCHANGED_FILE.formatted(barClassFile)));
+    }
+
+    @Test
+    void testEnhanceClassIncremental() throws Exception {
+        final List<Integer> calls = new ArrayList<Integer>();
+        calls.add(0, 0);
+        Method enhanceClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "enhanceClass",
+            new Class[] { File.class });
+        enhanceClassMethod.setAccessible(true);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    calls.set(0, calls.get(0) + 1);
+                    return "foobar".getBytes();
+                 }
+            });
+        enhancerField.set(enhanceMojo, enhancer);
+        Field manifestField = EnhanceMojo.class.getDeclaredField("manifest");
+        manifestField.setAccessible(true);
+        File stateDirectory = new File(tempDir, "state");
+        EnhancementManifest manifest = EnhancementManifest.load(stateDirectory, "foo");
+        manifestField.set(enhanceMojo, manifest);
+        // First run -> file is enhanced and recorded
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(1, calls.get(0));
+        assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
+        assertEquals(0, manifest.getHits());
+        assertEquals(1, manifest.getMisses());
+        manifest.store();
+        // Second run -> file is up to date and not enhanced again
+        logMessages.clear();
+        manifest = EnhancementManifest.load(stateDirectory, "foo");
+        manifestField.set(enhanceMojo, manifest);
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(1, calls.get(0));
+        assertEquals(1, manifest.getHits());
+        assertEquals(0, manifest.getMisses());
+        // verify log messages
+        assertEquals(3, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_ENHANCE_CLASS_FILE.formatted(barClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(barClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(barClassFile)));
+        // Third run -> file has changed and is enhanced again
+        Files.writeString(barClassFile.toPath(), "changed");
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(2, calls.get(0));
+        assertEquals(1, manifest.getMisses());
+    }
+
+    @Test
+    void testEnhanceClassWithCache() throws Exception {
+        final List<Integer> calls = new ArrayList<Integer>();
+        calls.add(0, 0);
+        Method enhanceClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "enhanceClass",
+            new Class[] { File.class });
+        enhanceClassMethod.setAccessible(true);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    calls.set(0, calls.get(0) + 1);
+                    return "foobar".getBytes();
+                 }
+            });
+        enhancerField.set(enhanceMojo, enhancer);
+        Field cacheField = EnhanceMojo.class.getDeclaredField("cache");
+        cacheField.setAccessible(true);
+        EnhancementCache cache = new EnhancementCache(new File(tempDir, "cache"), "foo", 1024);
+        cacheField.set(enhanceMojo, cache);
+        Files.writeString(barClassFile.toPath(), "bar");
+        // First run -> enhancer is invoked and the result is cached
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(1, calls.get(0));
+        assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
+        // Second run on the same original bytes -> enhanced bytes come from the cache
+        Files.writeString(barClassFile.toPath(), "bar");
+        logMessages.clear();
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(1, calls.get(0));
+        assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.FOUND_CLASS_FILE_IN_ENHANCEMENT_CACHE.formatted(barClassFile)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(barClassFile)));
+    }
+
+    @Test
+    void testExecuteWithCacheFollowsSuperclassChanges() throws Exception {
+        File cachedFolder = new File(tempDir, "cached");
+        File cleanFolder = new File(tempDir, "clean");
+        compileSubclass(cachedFolder, "@jakarta.persistence.MappedSuperclass");
+        compileSubclass(cleanFolder, "");
+        File subClassFile = new File(cachedFolder, "org/foo/Sub.class");
+        byte[] compiledSubBytes = Files.readAllBytes(subClassFile.toPath());
+        Field cacheDirectoryField = EnhanceMojo.class.getDeclaredField("cacheDirectory");
+        cacheDirectoryField.setAccessible(true);
+        Field cacheMaxSizeField = EnhanceMojo.class.getDeclaredField("cacheMaxSize");
+        cacheMaxSizeField.setAccessible(true);
+        File cacheDirectory = new File(tempDir, "cache");
+        classesDirectoryField.set(enhanceMojo, cachedFolder);
+        cacheDirectoryField.set(enhanceMojo, cacheDirectory);
+        cacheMaxSizeField.set(enhanceMojo, 1024 * 1024);
+        enhanceMojo.execute();
+        byte[] firstSubBytes = Files.readAllBytes(subClassFile.toPath());
+        // the superclass is no longer mapped, the bytes of the subclass stay the same
+        compileSubclass(cachedFolder, "");
+        assertArrayEquals(compiledSubBytes, Files.readAllBytes(subClassFile.toPath()));
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, cachedFolder);
+        cacheDirectoryField.set(secondMojo, cacheDirectory);
+        cacheMaxSizeField.set(secondMojo, 1024 * 1024);
+        logMessages.clear();
+        secondMojo.execute();
+        assertFalse(logMessages.contains(DEBUG + EnhanceMojo.FOUND_CLASS_FILE_IN_ENHANCEMENT_CACHE.formatted(subClassFile)));
+        byte[] secondSubBytes = Files.readAllBytes(subClassFile.toPath());
+        assertFalse(Arrays.equals(firstSubBytes, secondSubBytes));
+        // the subclass is enhanced just like without the cache
+        EnhanceMojo cleanMojo = new EnhanceMojo();
+        cleanMojo.setLog(createLog());
+        classesDirectoryField.set(cleanMojo, cleanFolder);
+        cleanMojo.execute();
+        assertArrayEquals(Files.readAllBytes(new File(cleanFolder, "org/foo/Sub.class").toPath()), secondSubBytes);
+    }
+
+    @Test
+    void testExecuteWithCacheSharedBetweenOutputDirectories() throws Exception {
+        File classesFolder = new File(tempDir, "input");
+        List<String> classNames = compileEntities(classesFolder, 1);
+        Field cacheDirectoryField = EnhanceMojo.class.getDeclaredField("cacheDirectory");
+        cacheDirectoryField.setAccessible(true);
+        Field cacheMaxSizeField = EnhanceMojo.class.getDeclaredField("cacheMaxSize");
+        cacheMaxSizeField.setAccessible(true);
+        Field outputDirectoryField = EnhanceMojo.class.getDeclaredField("outputDirectory");
+        outputDirectoryField.setAccessible(true);
+        File cacheDirectory = new File(tempDir, "cache");
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        cacheDirectoryField.set(enhanceMojo, cacheDirectory);
+        cacheMaxSizeField.set(enhanceMojo, 1024 * 1024);
+        outputDirectoryField.set(enhanceMojo, new File(tempDir, "first"));
+        enhanceMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.ENHANCEMENT_CACHE_SUMMARY.formatted(0, classNames.size())));
+        // the enhanced bytes do not depend on where they are written to
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, classesFolder);
+        cacheDirectoryField.set(secondMojo, cacheDirectory);
+        cacheMaxSizeField.set(secondMojo, 1024 * 1024);
+        outputDirectoryField.set(secondMojo, new File(tempDir, "second"));
+        logMessages.clear();
+        secondMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.ENHANCEMENT_CACHE_SUMMARY.formatted(classNames.size(), 0)));
+        for (String className : classNames) {
+            String path = className.replace('.', '/') + ".class";
+            assertArrayEquals(
+                Files.readAllBytes(new File(tempDir, "first/" + path).toPath()),
+                Files.readAllBytes(new File(tempDir, "second/" + path).toPath()));
+        }
+    }
+
+    @Test
+    void testEnhanceClassUsesDiscoveredBytes() throws Exception {
+        final List<String> enhancedBytes = new ArrayList<String>();
+        Method discoverTypesForClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "discoverTypesForClass",
+            new Class[] { File.class });
+        discoverTypesForClassMethod.setAccessible(true);
+        Method enhanceClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "enhanceClass",
+            new Class[] { File.class });
+        enhanceClassMethod.setAccessible(true);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("enhance")) {
+                        enhancedBytes.add(new String((byte[])args[1]));
+                    }
+                    return null;
+                 }
+            });
+        enhancerField.set(enhanceMojo, enhancer);
+        Field classBytesField = EnhanceMojo.class.getDeclaredField("classBytes");
+        classBytesField.setAccessible(true);
+        classBytesField.set(enhanceMojo, new ClassBytesStore(1024, tempDir));
+        Files.writeString(barClassFile.toPath(), "discovered");
+        discoverTypesForClassMethod.invoke(enhanceMojo, barClassFile);
+        // the enhancer is handed the bytes read during discovery, not the ones on disk
+        Files.writeString(barClassFile.toPath(), "changed");
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(List.of("discovered"), enhancedBytes);
+        // the bytes are kept for the whole run, as they resolve the class as a project type
+        enhanceClassMethod.invoke(enhanceMojo, barClassFile);
+        assertEquals(List.of("discovered", "discovered"), enhancedBytes);
+    }
+
+    @Test
+    void testSkipClassWithoutPersistenceAnnotations() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        Method discoverTypesForClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "discoverTypesForClass",
+            new Class[] { File.class });
+        discoverTypesForClassMethod.setAccessible(true);
+        Method enhanceClassMethod = EnhanceMojo.class.getDeclaredMethod(
+            "enhanceClass",
+            new Class[] { File.class });
+        enhanceClassMethod.setAccessible(true);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    calls.add(method.getName());
+                    return null;
+                 }
+            });
+        enhancerField.set(enhanceMojo, enhancer);
+        File serviceJavaFile = new File(fooFolder, "Service.java");
+        Files.writeString(serviceJavaFile.toPath(), "package org.foo; public class Service {}");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, serviceJavaFile.getAbsolutePath()));
+        File serviceClassFile = new File(fooFolder, "Service.class");
+        discoverTypesForClassMethod.invoke(enhanceMojo, serviceClassFile);
+        enhanceClassMethod.invoke(enhanceMojo, serviceClassFile);
+        // the enhancer is never called for the class
+        assertTrue(calls.isEmpty());
+        // verify log messages
+        assertEquals(6, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_DISCOVER_TYPES_FOR_CLASS_FILE.formatted(serviceClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.SKIPPING_TYPE_DISCOVERY_FOR_CLASS_FILE.formatted(serviceClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_ENHANCE_CLASS_FILE.formatted(serviceClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(serviceClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_DOES_NOT_NEED_ENHANCEMENT.formatted("org.foo.Service")));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_FILE.formatted(serviceClassFile)));
+    }
+
+    @Test
+    void testExecuteEnhancesAccessToFieldsOfDependencies() throws Exception {
+        File dependencyFolder = new File(tempDir, "dependency");
+        File dependencySourceFolder = new File(dependencyFolder, "org/bar");
+        dependencySourceFolder.mkdirs();
+        File personJavaFile = new File(dependencySourceFolder, "Person.java");
+        Files.writeString(personJavaFile.toPath(),
+            "package org.bar;" +
+            "@jakarta.persistence.Entity public class Person { " +
+            "    @jakarta.persistence.Id public Long id; " +
+            "    public String name; " +
+            "}");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            personJavaFile.getAbsolutePath()));
+        File readerJavaFile = new File(fooFolder, "Reader.java");
+        Files.writeString(readerJavaFile.toPath(),
+            "package org.foo; public class Reader { String read(org.bar.Person p) { return p.name; } }");
+        File printerJavaFile = new File(fooFolder, "Printer.java");
+        Files.writeString(printerJavaFile.toPath(),
+            "package org.foo; public class Printer { void print(String s) { System.out.println(s); } }");
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", dependencyFolder.getAbsolutePath(),
+            readerJavaFile.getAbsolutePath(),
+            printerJavaFile.getAbsolutePath()));
+        barClassFile.delete();
+        File readerClassFile = new File(fooFolder, "Reader.class");
+        File printerClassFile = new File(fooFolder, "Printer.class");
+        byte[] readerBytes = Files.readAllBytes(readerClassFile.toPath());
+        Field enableExtendedEnhancementField = EnhanceMojo.class.getDeclaredField("enableExtendedEnhancement");
+        enableExtendedEnhancementField.setAccessible(true);
+        enableExtendedEnhancementField.set(enhanceMojo, true);
+        Field classpathElementsField = EnhanceMojo.class.getDeclaredField("classpathElements");
+        classpathElementsField.setAccessible(true);
+        classpathElementsField.set(enhanceMojo, List.of(dependencyFolder.getAbsolutePath()));
+        enhanceMojo.execute();
+        // the access to the field of the entity of the dependency is rewritten
+        assertFalse(Arrays.equals(readerBytes, Files.readAllBytes(readerClassFile.toPath())));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(readerClassFile)));
+        // the field of the system class is no reason to call the enhancer
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_DOES_NOT_NEED_ENHANCEMENT.formatted("org.foo.Printer")));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_FILE.formatted(printerClassFile)));
+    }
+
     @Test
     void testPerformEnhancement() throws Exception {
         final List<Boolean> hasRun = new ArrayList<Boolean>();
@@ -516,13 +934,11 @@ public class EnhanceMojoTest {
         assertEquals("foobar", new String(Files.readAllBytes(barClassFile.toPath())));
         assertEquals(lastModified, barClassFile.lastModified());
         // verify the log messages
-        assertEquals(9, logMessages.size());
+        assertEquals(7, logMessages.size());
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_CLASS_ENHANCEMENT));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_ENHANCE_CLASS_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.DETERMINE_CLASS_NAME_FOR_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.WRITING_BYTE_CODE_TO_FILE.formatted(barClassFile)));
-        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.TRYING_TO_CLEAR_FILE.formatted(barClassFile)));
-        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_CLEARED_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.AMOUNT_BYTES_WRITTEN_TO_FILE.formatted("foobar".length(), barClassFile)));
         assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(barClassFile)));
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_CLASS_ENHANCEMENT));
@@ -596,6 +1012,587 @@ public class EnhanceMojoTest {
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_EXECUTION_OF_ENHANCE_MOJO));
     } 
 
+    @Test
+    void testExecuteOnEnhancedClasses() throws Exception {
+        File classesFolder = new File(tempDir, "enhanced");
+        List<String> classNames = compileEntities(classesFolder, 3);
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        enhanceMojo.execute();
+        List<byte[]> enhancedBytes = new ArrayList<byte[]>();
+        for (String className : classNames) {
+            enhancedBytes.add(Files.readAllBytes(new File(classesFolder, className.replace('.', '/') + ".class").toPath()));
+        }
+        // a second run finds every class enhanced already
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, classesFolder);
+        secondMojo.execute();
+        for (int i = 0; i < classNames.size(); i++) {
+            File classFile = new File(classesFolder, classNames.get(i).replace('.', '/') + ".class");
+            assertTrue(Arrays.equals(enhancedBytes.get(i), Files.readAllBytes(classFile.toPath())));
+            assertTrue(logMessages.contains(DEBUG + EnhanceMojo.SKIPPING_TYPE_DISCOVERY_FOR_ENHANCED_CLASS_FILE.formatted(classFile)));
+            assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_ALREADY_ENHANCED_FILE.formatted(classFile)));
+        }
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.ALREADY_ENHANCED_SUMMARY.formatted(classNames.size())));
+        // nothing was left for the enhancer, so it was never created
+        assertNull(enhancerField.get(secondMojo));
+    }
+
+    @Test
+    void testExecuteReplaysDiscoveredTypes() throws Exception {
+        File classesFolder = new File(tempDir, "replay");
+        File sourceFolder = new File(classesFolder, "org/foo");
+        sourceFolder.mkdirs();
+        File personJavaFile = new File(sourceFolder, "Person.java");
+        Files.writeString(personJavaFile.toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Person { " +
+            "    @jakarta.persistence.Id private Long id; " +
+            "    @jakarta.persistence.Embedded private Address address; " +
+            "}");
+        File addressJavaFile = new File(sourceFolder, "Address.java");
+        Files.writeString(addressJavaFile.toPath(),
+            "package org.foo; @jakarta.persistence.Embeddable public class Address { private String street; }");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            personJavaFile.getAbsolutePath(),
+            addressJavaFile.getAbsolutePath()));
+        File addressClassFile = new File(sourceFolder, "Address.class");
+        byte[] compiledAddressBytes = Files.readAllBytes(addressClassFile.toPath());
+        Field incrementalField = EnhanceMojo.class.getDeclaredField("incremental");
+        incrementalField.setAccessible(true);
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        File stateDirectory = new File(tempDir, "state");
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        incrementalField.set(enhanceMojo, true);
+        stateDirectoryField.set(enhanceMojo, stateDirectory);
+        enhanceMojo.execute();
+        assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(addressClassFile.toPath())));
+        assertTrue(new File(stateDirectory, DiscoveryRecords.FILE_NAME).isFile());
+        // only the embeddable is recompiled, the enhanced entity is replayed
+        Files.write(addressClassFile.toPath(), compiledAddressBytes);
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, classesFolder);
+        incrementalField.set(secondMojo, true);
+        stateDirectoryField.set(secondMojo, stateDirectory);
+        secondMojo.execute();
+        File personClassFile = new File(sourceFolder, "Person.class");
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.REPLAYED_DISCOVERED_TYPES_FOR_CLASS_FILE.formatted(personClassFile)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.REPLAYED_DISCOVERY_SUMMARY.formatted(1)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(addressClassFile)));
+        assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(addressClassFile.toPath())));
+        Field enhancementContextField = EnhanceMojo.class.getDeclaredField("enhancementContext");
+        enhancementContextField.setAccessible(true);
+        EnhancementContext enhancementContext = (EnhancementContext)enhancementContextField.get(secondMojo);
+        assertTrue(enhancementContext.isDiscoveredType("org.foo.Person"));
+    }
+
+    @Test
+    void testExecuteDropsDiscoveryRecordsOfClassesNoLongerMapped() throws Exception {
+        File classesFolder = new File(tempDir, "unmapped");
+        File plainFolder = new File(tempDir, "plain");
+        compileEmbedded(classesFolder, "@jakarta.persistence.Embeddable");
+        compileEmbedded(plainFolder, "");
+        File personClassFile = new File(classesFolder, "org/foo/Person.class");
+        File addressClassFile = new File(classesFolder, "org/bar/Address.class");
+        byte[] compiledPersonBytes = Files.readAllBytes(personClassFile.toPath());
+        File stateDirectory = new File(tempDir, "state");
+        File createdFiles = new File(tempDir, "createdFiles.lst");
+        configureChangeFeed(enhanceMojo, classesFolder, stateDirectory, createdFiles);
+        enhanceMojo.execute();
+        assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(addressClassFile.toPath())));
+        // the annotation is removed from the embeddable, the compiler lists it
+        Files.write(addressClassFile.toPath(), Files.readAllBytes(new File(plainFolder, "org/bar/Address.class").toPath()));
+        listCreatedFiles(classesFolder, stateDirectory, createdFiles, "org/bar/Address.class");
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        configureChangeFeed(secondMojo, classesFolder, stateDirectory, createdFiles);
+        secondMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.USING_COMPILER_CHANGE_FEED.formatted(1, createdFiles)));
+        assertFalse(ClassFileInspector.isEnhanced(Files.readAllBytes(addressClassFile.toPath())));
+        // the next run does not bring back the types recorded for the embeddable
+        Files.write(personClassFile.toPath(), compiledPersonBytes);
+        listCreatedFiles(classesFolder, stateDirectory, createdFiles, "org/foo/Person.class");
+        logMessages.clear();
+        EnhanceMojo thirdMojo = new EnhanceMojo();
+        thirdMojo.setLog(createLog());
+        configureChangeFeed(thirdMojo, classesFolder, stateDirectory, createdFiles);
+        thirdMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.USING_COMPILER_CHANGE_FEED.formatted(1, createdFiles)));
+        assertFalse(logMessages.contains(INFO + EnhanceMojo.DISCOVERING_CLASS_CHANGED_OUTSIDE_SOURCE_SET.formatted(addressClassFile)));
+        Field enhancementContextField = EnhanceMojo.class.getDeclaredField("enhancementContext");
+        enhancementContextField.setAccessible(true);
+        EnhancementContext enhancementContext = (EnhancementContext)enhancementContextField.get(thirdMojo);
+        assertTrue(enhancementContext.isDiscoveredType("org.foo.Person"));
+        assertFalse(enhancementContext.isDiscoveredType("org.bar.Address"));
+    }
+
+    @Test
+    void testExecuteDiscoversClassesChangedOutsideChangeFeed() throws Exception {
+        File classesFolder = new File(tempDir, "unlisted");
+        File plainFolder = new File(tempDir, "plain");
+        compileEmbedded(classesFolder, "@jakarta.persistence.Embeddable");
+        compileEmbedded(plainFolder, "");
+        File personClassFile = new File(classesFolder, "org/foo/Person.class");
+        File addressClassFile = new File(classesFolder, "org/bar/Address.class");
+        byte[] compiledPersonBytes = Files.readAllBytes(personClassFile.toPath());
+        File stateDirectory = new File(tempDir, "state");
+        File createdFiles = new File(tempDir, "createdFiles.lst");
+        configureChangeFeed(enhanceMojo, classesFolder, stateDirectory, createdFiles);
+        enhanceMojo.execute();
+        // the embeddable is overwritten in place, the compiler only lists the entity
+        Files.write(addressClassFile.toPath(), Files.readAllBytes(new File(plainFolder, "org/bar/Address.class").toPath()));
+        Files.write(personClassFile.toPath(), compiledPersonBytes);
+        listCreatedFiles(classesFolder, stateDirectory, createdFiles, "org/foo/Person.class");
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        configureChangeFeed(secondMojo, classesFolder, stateDirectory, createdFiles);
+        secondMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.USING_COMPILER_CHANGE_FEED.formatted(1, createdFiles)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.DISCOVERING_CLASS_CHANGED_OUTSIDE_SOURCE_SET.formatted(addressClassFile)));
+        Field enhancementContextField = EnhanceMojo.class.getDeclaredField("enhancementContext");
+        enhancementContextField.setAccessible(true);
+        EnhancementContext enhancementContext = (EnhancementContext)enhancementContextField.get(secondMojo);
+        assertFalse(enhancementContext.isDiscoveredType("org.bar.Address"));
+    }
+
+    @Test
+    void testExecuteResolvesProjectTypesFromMemory() throws Exception {
+        File classesFolder = new File(tempDir, "memory");
+        File sourceFolder = new File(classesFolder, "org/foo");
+        sourceFolder.mkdirs();
+        Files.writeString(new File(sourceFolder, "Person.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Person implements Named { " +
+            "    @jakarta.persistence.Id private Long id; " +
+            "    private Status status; " +
+            "    public String getName() { return null; } " +
+            "}");
+        Files.writeString(new File(sourceFolder, "Named.java").toPath(),
+            "package org.foo; public interface Named { String getName(); }");
+        Files.writeString(new File(sourceFolder, "Status.java").toPath(),
+            "package org.foo; public enum Status { ACTIVE, INACTIVE }");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            new File(sourceFolder, "Person.java").getAbsolutePath(),
+            new File(sourceFolder, "Named.java").getAbsolutePath(),
+            new File(sourceFolder, "Status.java").getAbsolutePath()));
+        Field maxBytesInMemoryField = EnhanceMojo.class.getDeclaredField("maxBytesInMemory");
+        maxBytesInMemoryField.setAccessible(true);
+        maxBytesInMemoryField.set(enhanceMojo, 1024 * 1024);
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        enhanceMojo.execute();
+        assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(new File(sourceFolder, "Person.class").toPath())));
+        // the interface and the enum are never registered with the enhancer, they are read from memory
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.PROJECT_CLASS_FILES_SUMMARY.formatted(2)));
+    }
+
+    @Test
+    void testExecuteInvalidatesDependentTypes() throws Exception {
+        File classesFolder = new File(tempDir, "graph");
+        File sourceFolder = new File(classesFolder, "org/foo");
+        sourceFolder.mkdirs();
+        Files.writeString(new File(sourceFolder, "Base.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.MappedSuperclass public class Base { private String name; }");
+        Files.writeString(new File(sourceFolder, "Sub.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Sub extends Base { @jakarta.persistence.Id private Long id; }");
+        Files.writeString(new File(sourceFolder, "Owner.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Owner { " +
+            "    @jakarta.persistence.Id private Long id; " +
+            "    @jakarta.persistence.OneToMany private java.util.List<Sub> subs; " +
+            "}");
+        Files.writeString(new File(sourceFolder, "Other.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Other { @jakarta.persistence.Id private Long id; }");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            new File(sourceFolder, "Base.java").getAbsolutePath(),
+            new File(sourceFolder, "Sub.java").getAbsolutePath(),
+            new File(sourceFolder, "Owner.java").getAbsolutePath(),
+            new File(sourceFolder, "Other.java").getAbsolutePath()));
+        File baseClassFile = new File(sourceFolder, "Base.class");
+        byte[] compiledBaseBytes = Files.readAllBytes(baseClassFile.toPath());
+        Field incrementalField = EnhanceMojo.class.getDeclaredField("incremental");
+        incrementalField.setAccessible(true);
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        File stateDirectory = new File(tempDir, "state");
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        incrementalField.set(enhanceMojo, true);
+        stateDirectoryField.set(enhanceMojo, stateDirectory);
+        enhanceMojo.execute();
+        assertFalse(logMessages.stream().anyMatch(message -> message.startsWith(INFO + "Invalidated")));
+        assertTrue(new File(stateDirectory, TypeGraph.FILE_NAME).isFile());
+        // the mapped superclass changes, its subclass and the owner of the association follow
+        Files.write(baseClassFile.toPath(), compiledBaseBytes);
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, classesFolder);
+        incrementalField.set(secondMojo, true);
+        stateDirectoryField.set(secondMojo, stateDirectory);
+        secondMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.INVALIDATED_DEPENDENT_TYPES.formatted(2, 1)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.INVALIDATED_DEPENDENT_TYPE.formatted("org.foo.Sub")));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.INVALIDATED_DEPENDENT_TYPE.formatted("org.foo.Owner")));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(new File(sourceFolder, "Other.class"))));
+        assertFalse(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(new File(sourceFolder, "Sub.class"))));
+        assertFalse(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(new File(sourceFolder, "Owner.class"))));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(baseClassFile)));
+    }
+
+    @Test
+    void testExecuteReleasesSpilledBytesOnFailure() throws Exception {
+        File classesFolder = new File(tempDir, "failing");
+        compileEntities(classesFolder, 2);
+        Enhancer enhancer = (Enhancer)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { Enhancer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("enhance")) {
+                        throw new IllegalStateException("enhancement failed");
+                    }
+                    return null;
+                 }
+            });
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        File stateDirectory = new File(tempDir, "state");
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        stateDirectoryField.set(enhanceMojo, stateDirectory);
+        enhancerField.set(enhanceMojo, enhancer);
+        // every class file is spilled to disk
+        assertThrows(IllegalStateException.class, () -> enhanceMojo.execute());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_BYTES_SPILLED_TO_DISK.formatted(0)));
+        Field classBytesField = EnhanceMojo.class.getDeclaredField("classBytes");
+        classBytesField.setAccessible(true);
+        assertNull(classBytesField.get(enhanceMojo));
+        assertEquals(0, stateDirectory.list().length);
+    }
+
+    @Test
+    void testExecuteEnhancesDependentTypesAgain() throws Exception {
+        File classesFolder = new File(tempDir, "dependent");
+        File cleanFolder = new File(tempDir, "clean");
+        compileSubclass(classesFolder, "@jakarta.persistence.MappedSuperclass");
+        compileSubclass(cleanFolder, "");
+        File subClassFile = new File(classesFolder, "org/foo/Sub.class");
+        File stateDirectory = new File(tempDir, "state");
+        File cacheDirectory = new File(tempDir, "cache");
+        configureIncremental(enhanceMojo, classesFolder, stateDirectory, cacheDirectory);
+        enhanceMojo.execute();
+        byte[] firstSubBytes = Files.readAllBytes(subClassFile.toPath());
+        assertTrue(ClassFileInspector.isEnhanced(firstSubBytes));
+        // only the superclass is recompiled, it is no longer mapped
+        compileSubclass(classesFolder, "");
+        Files.write(subClassFile.toPath(), firstSubBytes);
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        configureIncremental(secondMojo, classesFolder, stateDirectory, cacheDirectory);
+        secondMojo.execute();
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.INVALIDATED_DEPENDENT_TYPE.formatted("org.foo.Sub")));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENHANCING_DEPENDENT_TYPE_AGAIN.formatted(subClassFile)));
+        byte[] secondSubBytes = Files.readAllBytes(subClassFile.toPath());
+        assertFalse(Arrays.equals(firstSubBytes, secondSubBytes));
+        EnhanceMojo cleanMojo = new EnhanceMojo();
+        cleanMojo.setLog(createLog());
+        classesDirectoryField.set(cleanMojo, cleanFolder);
+        cleanMojo.execute();
+        assertArrayEquals(Files.readAllBytes(new File(cleanFolder, "org/foo/Sub.class").toPath()), secondSubBytes);
+        // without the cache the original byte code of the subclass is unknown
+        compileSubclass(classesFolder, "@jakarta.persistence.MappedSuperclass");
+        Files.write(subClassFile.toPath(), secondSubBytes);
+        logMessages.clear();
+        EnhanceMojo thirdMojo = new EnhanceMojo();
+        thirdMojo.setLog(createLog());
+        configureIncremental(thirdMojo, classesFolder, stateDirectory, null);
+        thirdMojo.execute();
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.INVALIDATED_DEPENDENT_TYPE.formatted("org.foo.Sub")));
+        assertTrue(logMessages.contains(WARNING + EnhanceMojo.UNABLE_TO_ENHANCE_DEPENDENT_TYPE_AGAIN.formatted(subClassFile)));
+        assertArrayEquals(secondSubBytes, Files.readAllBytes(subClassFile.toPath()));
+    }
+
+    @Test
+    void testExecuteWithoutPersistenceTypes() throws Exception {
+        File fooJavaFile = new File(fooFolder, "Foo.java");
+        Files.writeString(fooJavaFile.toPath(), "package org.foo; public class Foo { private String bar; }");
+        File fooClassFile = new File(fooFolder, "Foo.class");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, fooJavaFile.getAbsolutePath()));
+        barClassFile.delete();
+        byte[] fooBytes = Files.readAllBytes(fooClassFile.toPath());
+        enhanceMojo.execute();
+        assertTrue(Arrays.equals(fooBytes, Files.readAllBytes(fooClassFile.toPath())));
+        // the bytecode provider is never bootstrapped
+        assertNull(enhancerField.get(enhanceMojo));
+        assertFalse(logMessages.contains(DEBUG + EnhanceMojo.CREATE_BYTECODE_ENHANCER));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_FILE.formatted(fooClassFile)));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ENDING_EXECUTION_OF_ENHANCE_MOJO));
+    }
+
+    @Test
+    void testExecuteSkip() throws Exception {
+        Field skipField = EnhanceMojo.class.getDeclaredField("skip");
+        skipField.setAccessible(true);
+        skipField.set(enhanceMojo, true);
+        enhanceMojo.execute();
+        assertNull(enhancerField.get(enhanceMojo));
+        // verify log messages
+        assertEquals(2, logMessages.size());
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.STARTING_EXECUTION_OF_ENHANCE_MOJO));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_EXECUTION_OF_ENHANCE_MOJO));
+    }
+
+    @Test
+    void testExecuteEnhancesArchive() throws Exception {
+        File compiledFolder = new File(tempDir, "compiled");
+        List<String> classNames = compileEntities(compiledFolder, 2);
+        File archive = new File(tempDir, "entities.jar");
+        byte[] readmeBytes = "read me".getBytes();
+        CRC32 readmeCrc = new CRC32();
+        readmeCrc.update(readmeBytes);
+        byte[] notesBytes = "notes ".repeat(1000).getBytes();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+            out.putNextEntry(new ZipEntry("org/foo/"));
+            out.closeEntry();
+            for (String className : classNames) {
+                String entryName = className.replace('.', '/') + ".class";
+                byte[] bytes = Files.readAllBytes(new File(compiledFolder, entryName).toPath());
+                ZipEntry entry = new ZipEntry(entryName);
+                if (className.endsWith("Address")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(bytes.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+            // deflated without compression, deflating it again would shrink it
+            out.setLevel(Deflater.NO_COMPRESSION);
+            out.putNextEntry(new ZipEntry("NOTES.txt"));
+            out.write(notesBytes);
+            out.closeEntry();
+            ZipEntry readmeEntry = new ZipEntry("README.txt");
+            readmeEntry.setMethod(ZipEntry.STORED);
+            readmeEntry.setSize(readmeBytes.length);
+            readmeEntry.setCrc(readmeCrc.getValue());
+            out.putNextEntry(readmeEntry);
+            out.write(readmeBytes);
+            out.closeEntry();
+        }
+        File emptyClassesFolder = new File(tempDir, "empty");
+        emptyClassesFolder.mkdirs();
+        Field archivesField = EnhanceMojo.class.getDeclaredField("archives");
+        archivesField.setAccessible(true);
+        classesDirectoryField.set(enhanceMojo, emptyClassesFolder);
+        archivesField.set(enhanceMojo, new File[] { archive });
+        long notesCompressedSize;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            notesCompressedSize = zipFile.getEntry("NOTES.txt").getCompressedSize();
+        }
+        enhanceMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_ARCHIVE.formatted(classNames.size(), archive)));
+        assertFalse(new File(tempDir, archive.getName() + EnhanceMojo.TEMP_FILE_SUFFIX).exists());
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            assertEquals(classNames.size() + 3, zipFile.size());
+            // unchanged entries are copied with their compressed bytes
+            ZipEntry notesEntry = zipFile.getEntry("NOTES.txt");
+            assertEquals(ZipEntry.DEFLATED, notesEntry.getMethod());
+            assertEquals(notesCompressedSize, notesEntry.getCompressedSize());
+            assertTrue(Arrays.equals(notesBytes, zipFile.getInputStream(notesEntry).readAllBytes()));
+            assertTrue(zipFile.getEntry("org/foo/").isDirectory());
+            ZipEntry readmeEntry = zipFile.getEntry("README.txt");
+            assertEquals(ZipEntry.STORED, readmeEntry.getMethod());
+            assertEquals(readmeCrc.getValue(), readmeEntry.getCrc());
+            assertTrue(Arrays.equals(readmeBytes, zipFile.getInputStream(readmeEntry).readAllBytes()));
+            ZipEntry addressEntry = zipFile.getEntry("org/foo/Address.class");
+            assertEquals(ZipEntry.STORED, addressEntry.getMethod());
+            for (String className : classNames) {
+                ZipEntry entry = zipFile.getEntry(className.replace('.', '/') + ".class");
+                assertTrue(ClassFileInspector.isEnhanced(zipFile.getInputStream(entry).readAllBytes()), className);
+            }
+        }
+        // a second run finds nothing left to enhance and leaves the archive alone
+        byte[] enhancedArchiveBytes = Files.readAllBytes(archive.toPath());
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, emptyClassesFolder);
+        archivesField.set(secondMojo, new File[] { archive });
+        secondMojo.execute();
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SKIPPING_ARCHIVE.formatted(archive)));
+        assertTrue(Arrays.equals(enhancedArchiveBytes, Files.readAllBytes(archive.toPath())));
+        assertNull(enhancerField.get(secondMojo));
+    }
+
+    @Test
+    void testExecuteSkipsSignedArchive() throws Exception {
+        File compiledFolder = new File(tempDir, "compiled");
+        List<String> classNames = compileEntities(compiledFolder, 1);
+        File archive = new File(tempDir, "signed.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+            for (String className : classNames) {
+                String entryName = className.replace('.', '/') + ".class";
+                out.putNextEntry(new ZipEntry(entryName));
+                out.write(Files.readAllBytes(new File(compiledFolder, entryName).toPath()));
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("META-INF/SIGNER.SF"));
+            out.write("Signature-Version: 1.0".getBytes());
+            out.closeEntry();
+        }
+        byte[] archiveBytes = Files.readAllBytes(archive.toPath());
+        File emptyClassesFolder = new File(tempDir, "empty");
+        emptyClassesFolder.mkdirs();
+        Field archivesField = EnhanceMojo.class.getDeclaredField("archives");
+        archivesField.setAccessible(true);
+        classesDirectoryField.set(enhanceMojo, emptyClassesFolder);
+        archivesField.set(enhanceMojo, new File[] { archive });
+        enhanceMojo.execute();
+        assertTrue(logMessages.contains(WARNING + EnhanceMojo.SKIPPING_SIGNED_ARCHIVE.formatted(archive)));
+        assertTrue(Arrays.equals(archiveBytes, Files.readAllBytes(archive.toPath())));
+    }
+
+    @Test
+    void testDetermineClassNameForArchiveEntry() {
+        assertEquals("org.foo.Bar", EnhanceMojo.determineClassName(new ZipEntry("org/foo/Bar.class")));
+        assertEquals("org.foo.Bar", EnhanceMojo.determineClassName(new ZipEntry("WEB-INF/classes/org/foo/Bar.class")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("org/foo/")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("org/foo/Bar.txt")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("module-info.class")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("org/foo/package-info.class")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("META-INF/versions/11/org/foo/Bar.class")));
+        assertNull(EnhanceMojo.determineClassName(new ZipEntry("WEB-INF/lib/Bar.class")));
+    }
+
+    @Test
+    void testExecuteWithOutputDirectory() throws Exception {
+        File classesFolder = new File(tempDir, "input");
+        List<String> classNames = compileEntities(classesFolder, 2);
+        File utilJavaFile = new File(classesFolder, "org/foo/Util.java");
+        Files.writeString(utilJavaFile.toPath(), "package org.foo; public class Util { int count; }");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, utilJavaFile.getAbsolutePath()));
+        File utilClassFile = new File(classesFolder, "org/foo/Util.class");
+        File entityClassFile = new File(classesFolder, "org/foo/Entity0.class");
+        byte[] compiledEntityBytes = Files.readAllBytes(entityClassFile.toPath());
+        File outputFolder = new File(tempDir, "output");
+        Field outputDirectoryField = EnhanceMojo.class.getDeclaredField("outputDirectory");
+        outputDirectoryField.setAccessible(true);
+        Field incrementalField = EnhanceMojo.class.getDeclaredField("incremental");
+        incrementalField.setAccessible(true);
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        File stateDirectory = new File(tempDir, "state");
+        classesDirectoryField.set(enhanceMojo, classesFolder);
+        outputDirectoryField.set(enhanceMojo, outputFolder);
+        incrementalField.set(enhanceMojo, true);
+        stateDirectoryField.set(enhanceMojo, stateDirectory);
+        enhanceMojo.execute();
+        // the classes directory is left untouched
+        assertTrue(Arrays.equals(compiledEntityBytes, Files.readAllBytes(entityClassFile.toPath())));
+        for (String className : classNames) {
+            File outputFile = new File(outputFolder, className.replace('.', '/') + ".class");
+            assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(outputFile.toPath())), className);
+        }
+        File utilOutputFile = new File(outputFolder, "org/foo/Util.class");
+        assertTrue(Arrays.equals(Files.readAllBytes(utilClassFile.toPath()), Files.readAllBytes(utilOutputFile.toPath())));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.LINKED_CLASS_FILE.formatted(utilClassFile))
+            || logMessages.contains(DEBUG + EnhanceMojo.COPIED_CLASS_FILE.formatted(utilClassFile)));
+        if (logMessages.contains(DEBUG + EnhanceMojo.LINKED_CLASS_FILE.formatted(utilClassFile))) {
+            assertTrue(Files.isSameFile(utilClassFile.toPath(), utilOutputFile.toPath()));
+        }
+        // a second run finds the unchanged class files up to date, as long as their output exists
+        File entityOutputFile = new File(outputFolder, "org/foo/Entity0.class");
+        assertTrue(entityOutputFile.delete());
+        logMessages.clear();
+        EnhanceMojo secondMojo = new EnhanceMojo();
+        secondMojo.setLog(createLog());
+        classesDirectoryField.set(secondMojo, classesFolder);
+        outputDirectoryField.set(secondMojo, outputFolder);
+        incrementalField.set(secondMojo, true);
+        stateDirectoryField.set(secondMojo, stateDirectory);
+        secondMojo.execute();
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(new File(classesFolder, "org/foo/Entity1.class"))));
+        assertTrue(logMessages.contains(DEBUG + EnhanceMojo.CLASS_FILE_UP_TO_DATE.formatted(utilClassFile)));
+        assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(entityClassFile)));
+        assertTrue(ClassFileInspector.isEnhanced(Files.readAllBytes(entityOutputFile.toPath())));
+    }
+
+    @Test
+    void testExecuteInParallel() throws Exception {
+        File sequentialDirectory = new File(tempDir, "sequential");
+        File parallelDirectory = new File(tempDir, "parallel");
+        List<String> classNames = compileEntities(sequentialDirectory, 20);
+        compileEntities(parallelDirectory, 20);
+        Field threadsField = EnhanceMojo.class.getDeclaredField("threads");
+        threadsField.setAccessible(true);
+        EnhanceMojo sequentialMojo = new EnhanceMojo();
+        sequentialMojo.setLog(createLog());
+        classesDirectoryField.set(sequentialMojo, sequentialDirectory);
+        threadsField.set(sequentialMojo, 1);
+        sequentialMojo.execute();
+        EnhanceMojo parallelMojo = new EnhanceMojo();
+        parallelMojo.setLog(createLog());
+        classesDirectoryField.set(parallelMojo, parallelDirectory);
+        threadsField.set(parallelMojo, 4);
+        parallelMojo.execute();
+        // a single worker with spare workers for the file system operations
+        File ioDirectory = new File(tempDir, "io");
+        compileEntities(ioDirectory, 20);
+        Field ioThreadsField = EnhanceMojo.class.getDeclaredField("ioThreads");
+        ioThreadsField.setAccessible(true);
+        EnhanceMojo ioMojo = new EnhanceMojo();
+        ioMojo.setLog(createLog());
+        classesDirectoryField.set(ioMojo, ioDirectory);
+        threadsField.set(ioMojo, 1);
+        ioThreadsField.set(ioMojo, 8);
+        ioMojo.execute();
+        // a single worker that hands the enhanced class files to the write stage
+        File writeDirectory = new File(tempDir, "write");
+        compileEntities(writeDirectory, 20);
+        Field writeThreadsField = EnhanceMojo.class.getDeclaredField("writeThreads");
+        writeThreadsField.setAccessible(true);
+        EnhanceMojo writeMojo = new EnhanceMojo();
+        writeMojo.setLog(createLog());
+        classesDirectoryField.set(writeMojo, writeDirectory);
+        threadsField.set(writeMojo, 1);
+        writeThreadsField.set(writeMojo, 1);
+        writeMojo.execute();
+        for (String className : classNames) {
+            String classFileName = className.replace('.', '/') + ".class";
+            byte[] sequentialBytes = Files.readAllBytes(new File(sequentialDirectory, classFileName).toPath());
+            byte[] parallelBytes = Files.readAllBytes(new File(parallelDirectory, classFileName).toPath());
+            assertTrue(Arrays.equals(sequentialBytes, parallelBytes), className);
+            byte[] ioBytes = Files.readAllBytes(new File(ioDirectory, classFileName).toPath());
+            assertTrue(Arrays.equals(sequentialBytes, ioBytes), className);
+            byte[] writeBytes = Files.readAllBytes(new File(writeDirectory, classFileName).toPath());
+            assertTrue(Arrays.equals(sequentialBytes, writeBytes), className);
+            assertTrue(logMessages.contains(INFO + EnhanceMojo.SUCCESFULLY_ENHANCED_CLASS_FILE.formatted(
+                new File(parallelDirectory, classFileName))));
+        }
+    }
+
     @Test
     void testProcessParameters() throws Exception {
         Method processParametersMethod = EnhanceMojo.class.getDeclaredMethod(
@@ -627,6 +1624,134 @@ public class EnhanceMojoTest {
         assertTrue(logMessages.contains(DEBUG + EnhanceMojo.ADDED_DEFAULT_FILESET_WITH_BASE_DIRECTORY.formatted(classesDirectory)));
     }
 
+    /**
+     * Compiles 'amount' entities, each embedding a shared embeddable and
+     * referencing the previous entity, into the given folder.
+     */
+    static List<String> compileEntities(File folder, int amount) throws Exception {
+        File sourceFolder = new File(folder, "org/foo");
+        sourceFolder.mkdirs();
+        List<String> classNames = new ArrayList<String>();
+        List<String> options = new ArrayList<String>();
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        options.add("-cp");
+        options.add(new File(url.toURI()).getAbsolutePath());
+        File embeddableFile = new File(sourceFolder, "Address.java");
+        Files.writeString(embeddableFile.toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Embeddable public class Address { " +
+            "    private String street; " +
+            "}");
+        options.add(embeddableFile.getAbsolutePath());
+        classNames.add("org.foo.Address");
+        for (int i = 0; i < amount; i++) {
+            File entityFile = new File(sourceFolder, "Entity" + i + ".java");
+            Files.writeString(entityFile.toPath(),
+                "package org.foo;" +
+                "@jakarta.persistence.Entity public class Entity" + i + " { " +
+                "    @jakarta.persistence.Id private Long id; " +
+                "    private String name; " +
+                "    private Address address; " +
+                (i > 0 ? "    @jakarta.persistence.ManyToOne private Entity" + (i - 1) + " previous; " : "") +
+                "    public String getName() { return name; } " +
+                "    public void setName(String n) { name = n; } " +
+                "}");
+            options.add(entityFile.getAbsolutePath());
+            classNames.add("org.foo.Entity" + i);
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, options.toArray(new String[] {})));
+        return classNames;
+    }
+
+    private void configureIncremental(EnhanceMojo mojo, File classesFolder, File stateDirectory, File cacheDirectory) throws Exception {
+        Field incrementalField = EnhanceMojo.class.getDeclaredField("incremental");
+        incrementalField.setAccessible(true);
+        Field stateDirectoryField = EnhanceMojo.class.getDeclaredField("stateDirectory");
+        stateDirectoryField.setAccessible(true);
+        Field cacheDirectoryField = EnhanceMojo.class.getDeclaredField("cacheDirectory");
+        cacheDirectoryField.setAccessible(true);
+        Field cacheMaxSizeField = EnhanceMojo.class.getDeclaredField("cacheMaxSize");
+        cacheMaxSizeField.setAccessible(true);
+        classesDirectoryField.set(mojo, classesFolder);
+        incrementalField.set(mojo, true);
+        stateDirectoryField.set(mojo, stateDirectory);
+        cacheDirectoryField.set(mojo, cacheDirectory);
+        cacheMaxSizeField.set(mojo, 1024 * 1024);
+    }
+
+    private void configureChangeFeed(EnhanceMojo mojo, File classesFolder, File stateDirectory, File createdFiles) throws Exception {
+        configureIncremental(mojo, classesFolder, stateDirectory, null);
+        Field useCompilerChangeFeedField = EnhanceMojo.class.getDeclaredField("useCompilerChangeFeed");
+        useCompilerChangeFeedField.setAccessible(true);
+        useCompilerChangeFeedField.set(mojo, true);
+        Field createdFilesListField = EnhanceMojo.class.getDeclaredField("createdFilesList");
+        createdFilesListField.setAccessible(true);
+        createdFilesListField.set(mojo, createdFiles);
+    }
+
+    /**
+     * Writes the list of created files as the compiler does, with the listed
+     * class files newer and all directories older than the consumed list.
+     */
+    private static void listCreatedFiles(File classesFolder, File stateDirectory, File createdFiles, String... paths) throws Exception {
+        Files.write(createdFiles.toPath(), List.of(paths));
+        long consumed = new File(stateDirectory, CompilerChangeFeed.MARKER_FILE_NAME).lastModified();
+        try (Stream<Path> files = Files.walk(classesFolder.toPath())) {
+            files.filter(Files::isDirectory).forEach(directory -> directory.toFile().setLastModified(consumed - 2000));
+        }
+        for (String path : paths) {
+            new File(classesFolder, path).setLastModified(consumed + 2000);
+        }
+    }
+
+    /**
+     * Compiles the entity 'org.foo.Person' and the class 'org.bar.Address' it
+     * embeds, annotated with the given annotation, into the given folder.
+     */
+    private static void compileEmbedded(File folder, String addressAnnotation) throws Exception {
+        File fooFolder = new File(folder, "org/foo");
+        File barFolder = new File(folder, "org/bar");
+        fooFolder.mkdirs();
+        barFolder.mkdirs();
+        Files.writeString(new File(fooFolder, "Person.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Person { " +
+            "    @jakarta.persistence.Id private Long id; " +
+            "    @jakarta.persistence.Embedded private org.bar.Address address; " +
+            "}");
+        Files.writeString(new File(barFolder, "Address.java").toPath(),
+            "package org.bar;" +
+            addressAnnotation + " public class Address { private String street; }");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            new File(fooFolder, "Person.java").getAbsolutePath(),
+            new File(barFolder, "Address.java").getAbsolutePath()));
+    }
+
+    /**
+     * Compiles the entity 'org.foo.Sub' and its superclass 'org.foo.Base',
+     * annotated with the given annotation, into the given folder.
+     */
+    private static void compileSubclass(File folder, String baseAnnotation) throws Exception {
+        File sourceFolder = new File(folder, "org/foo");
+        sourceFolder.mkdirs();
+        Files.writeString(new File(sourceFolder, "Base.java").toPath(),
+            "package org.foo;" +
+            baseAnnotation + " public class Base { private String name; }");
+        Files.writeString(new File(sourceFolder, "Sub.java").toPath(),
+            "package org.foo;" +
+            "@jakarta.persistence.Entity public class Sub extends Base { @jakarta.persistence.Id private Long id; }");
+        URL url = Entity.class.getProtectionDomain().getCodeSource().getLocation();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+            "-cp", new File(url.toURI()).getAbsolutePath(),
+            new File(sourceFolder, "Base.java").getAbsolutePath(),
+            new File(sourceFolder, "Sub.java").getAbsolutePath()));
+    }
+
     private Log createLog() {
         return (Log)Proxy.newProxyInstance(
             getClass().getClassLoader(), 
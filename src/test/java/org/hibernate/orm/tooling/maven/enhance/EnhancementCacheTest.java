@@ -0,0 +1,129 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EnhancementCacheTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testKey() {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 1024);
+        assertEquals(cache.key("bar".getBytes()), cache.key("bar".getBytes()));
+        assertNotEquals(cache.key("bar".getBytes()), cache.key("baz".getBytes()));
+        EnhancementCache otherCache = new EnhancementCache(tempDir, "bar", 1024);
+        assertNotEquals(cache.key("bar".getBytes()), otherCache.key("bar".getBytes()));
+    }
+
+    @Test
+    void testGetAndPut() throws Exception {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 1024);
+        String enhancedKey = cache.key("bar".getBytes());
+        String notEnhancedKey = cache.key("baz".getBytes());
+        assertNull(cache.get(enhancedKey));
+        cache.put(enhancedKey, "foobar".getBytes());
+        cache.put(notEnhancedKey, null);
+        // storing the same entry twice is harmless
+        cache.put(enhancedKey, "foobar".getBytes());
+        assertArrayEquals("foobar".getBytes(), cache.get(enhancedKey));
+        byte[] notEnhancedBytes = cache.get(notEnhancedKey);
+        assertNotNull(notEnhancedBytes);
+        assertEquals(0, notEnhancedBytes.length);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testPutAndGetOriginal() throws Exception {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 1024);
+        assertNull(cache.getOriginal("foobar".getBytes()));
+        cache.putOriginal("foobar".getBytes(), "bar".getBytes());
+        cache.putOriginal("foobar".getBytes(), "bar".getBytes());
+        assertArrayEquals("bar".getBytes(), cache.getOriginal("foobar".getBytes()));
+        // the original bytes do not count as lookups of enhanced bytes
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertNull(cache.get(cache.key("foobar".getBytes())));
+    }
+
+    @Test
+    void testEvict() throws Exception {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 12);
+        String firstKey = cache.key("first".getBytes());
+        String secondKey = cache.key("second".getBytes());
+        String thirdKey = cache.key("third".getBytes());
+        cache.put(firstKey, "foobar".getBytes());
+        cache.put(secondKey, "foobar".getBytes());
+        assertEquals(0, cache.evict());
+        File firstEntry = new File(tempDir, firstKey.substring(0, 2) + "/" + firstKey);
+        File secondEntry = new File(tempDir, secondKey.substring(0, 2) + "/" + secondKey);
+        firstEntry.setLastModified(2000);
+        secondEntry.setLastModified(1000);
+        cache.put(thirdKey, "foobar".getBytes());
+        // the second entry is the least recently used one
+        assertEquals(1, cache.evict());
+        assertNotNull(cache.get(firstKey));
+        assertNull(cache.get(secondKey));
+        assertNotNull(cache.get(thirdKey));
+    }
+
+    @Test
+    void testEvictClasspathIndex() throws Exception {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 6);
+        File indexFile = new File(tempDir, EnhancementCache.CLASSPATH_INDEX_DIRECTORY + "/classpath-foo.idx");
+        indexFile.getParentFile().mkdirs();
+        Files.write(indexFile.toPath(), new byte[1024]);
+        indexFile.setLastModified(1000);
+        String key = cache.key("first".getBytes());
+        cache.put(key, "foobar".getBytes());
+        // the stale index counts toward the maximum size and is evicted first
+        assertEquals(1, cache.evict());
+        assertFalse(indexFile.exists());
+        assertNotNull(cache.get(key));
+    }
+
+    @Test
+    void testEvictIsSkippedWhileAnotherModuleEvicts() throws Exception {
+        EnhancementCache cache = new EnhancementCache(tempDir, "foo", 0);
+        String key = cache.key("first".getBytes());
+        cache.put(key, "foobar".getBytes());
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(tempDir, EnhancementCache.LOCK_FILE_NAME), "rw");
+             FileLock lock = lockFile.getChannel().lock()) {
+            // the lock is held within this virtual machine
+            assertEquals(0, cache.evict());
+        }
+        assertNotNull(cache.get(key));
+        assertEquals(1, cache.evict());
+    }
+
+}
@@ -1,15 +1,28 @@
 package org.hibernate.orm.tooling.maven.enhance;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.annotation.Annotation;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hibernate.bytecode.enhance.spi.UnloadedClass;
+import org.hibernate.bytecode.enhance.spi.UnloadedField;
 import org.junit.jupiter.api.Test;
 
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.Entity;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.Transient;
+import jakarta.persistence.metamodel.Type.PersistenceType;
+
 public class EnhancementContextTest {
 
     @Test
@@ -61,4 +74,104 @@ public class EnhancementContextTest {
         assertTrue(context.doExtendedEnhancement(null));
     }
 
+    @Test
+    void testRecordAndReplayDiscoveredTypes() {
+        EnhancementContext context = new EnhancementContext(null, false, false, false, false);
+        Map<String, PersistenceType> recorded = context.recordDiscoveredTypes(() -> {
+            context.replayDiscoveredType("org.foo.Bar", PersistenceType.ENTITY);
+            context.replayDiscoveredType("org.foo.Baz", PersistenceType.EMBEDDABLE);
+        });
+        assertEquals(Map.of("org.foo.Bar", PersistenceType.ENTITY, "org.foo.Baz", PersistenceType.EMBEDDABLE), recorded);
+        assertTrue(context.isDiscoveredType("org.foo.Baz"));
+        assertFalse(context.isDiscoveredType("org.foo.Foo"));
+        // types registered outside of a recording are not recorded
+        context.replayDiscoveredType("org.foo.Foo", PersistenceType.EMBEDDABLE);
+        assertTrue(context.isDiscoveredType("org.foo.Foo"));
+        assertEquals(2, recorded.size());
+    }
+
+    @Test
+    void testClassDecisionsAreMemoized() {
+        EnhancementContext context = new EnhancementContext(null, false, false, false, false);
+        AtomicInteger lookups = new AtomicInteger();
+        UnloadedClass bar = unloadedClass("org.foo.Bar", lookups, Entity.class);
+        UnloadedClass baz = unloadedClass("org.foo.Baz", lookups, Embeddable.class);
+        assertTrue(context.isEntityClass(bar));
+        assertFalse(context.isEntityClass(baz));
+        assertTrue(context.isCompositeClass(baz));
+        assertFalse(context.isMappedSuperclassClass(bar));
+        int lookupsBefore = lookups.get();
+        assertEquals(0, context.getSavedLookups());
+        // another description of the same class is answered from the earlier decision
+        assertTrue(context.isEntityClass(unloadedClass("org.foo.Bar", lookups, Entity.class)));
+        assertFalse(context.isEntityClass(baz));
+        assertTrue(context.isCompositeClass(baz));
+        assertFalse(context.isMappedSuperclassClass(bar));
+        assertEquals(lookupsBefore, lookups.get());
+        assertEquals(4, context.getSavedLookups());
+    }
+
+    @Test
+    void testCompositeClassDecisionFollowsDiscoveredTypes() {
+        EnhancementContext context = new EnhancementContext(null, false, false, false, false);
+        AtomicInteger lookups = new AtomicInteger();
+        UnloadedClass baz = unloadedClass("org.foo.Baz", lookups);
+        assertFalse(context.isCompositeClass(baz));
+        // discovered as an embeddable after the first decision
+        context.replayDiscoveredType("org.foo.Baz", PersistenceType.EMBEDDABLE);
+        assertTrue(context.isCompositeClass(baz));
+        assertEquals(1, lookups.get());
+        assertEquals(1, context.getSavedLookups());
+    }
+
+    @Test
+    void testFieldDecisionsAreMemoized() {
+        EnhancementContext context = new EnhancementContext(null, false, false, false, false);
+        AtomicInteger lookups = new AtomicInteger();
+        assertFalse(context.isPersistentField(unloadedField("private java.lang.String org.foo.Bar.cache", lookups, Transient.class)));
+        assertTrue(context.isPersistentField(unloadedField("private java.lang.String org.foo.Bar.name", lookups)));
+        assertTrue(context.isMappedCollection(unloadedField("private java.util.Set org.foo.Bar.bazs", lookups, OneToMany.class)));
+        int lookupsBefore = lookups.get();
+        assertFalse(context.isPersistentField(unloadedField("private java.lang.String org.foo.Bar.cache", lookups, Transient.class)));
+        assertTrue(context.isPersistentField(unloadedField("private java.lang.String org.foo.Bar.name", lookups)));
+        assertTrue(context.isMappedCollection(unloadedField("private java.util.Set org.foo.Bar.bazs", lookups, OneToMany.class)));
+        assertEquals(lookupsBefore, lookups.get());
+        assertEquals(3, context.getSavedLookups());
+        // a field of the same name in another class is decided on its own
+        assertTrue(context.isPersistentField(unloadedField("private java.lang.String org.foo.Baz.cache", lookups)));
+        assertEquals(3, context.getSavedLookups());
+    }
+
+    @SafeVarargs
+    private static UnloadedClass unloadedClass(String name, AtomicInteger lookups, Class<? extends Annotation>... annotations) {
+        Set<Class<? extends Annotation>> annotationTypes = Set.of(annotations);
+        return new UnloadedClass() {
+            @Override
+            public boolean hasAnnotation(Class<? extends Annotation> annotationType) {
+                lookups.incrementAndGet();
+                return annotationTypes.contains(annotationType);
+            }
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    @SafeVarargs
+    private static UnloadedField unloadedField(String description, AtomicInteger lookups, Class<? extends Annotation>... annotations) {
+        Set<Class<? extends Annotation>> annotationTypes = Set.of(annotations);
+        return new UnloadedField() {
+            @Override
+            public boolean hasAnnotation(Class<? extends Annotation> annotationType) {
+                lookups.incrementAndGet();
+                return annotationTypes.contains(annotationType);
+            }
+            @Override
+            public String toString() {
+                return description;
+            }
+        };
+    }
+
 }
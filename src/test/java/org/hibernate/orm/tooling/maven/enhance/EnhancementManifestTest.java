@@ -0,0 +1,96 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EnhancementManifestTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testLoadMissingManifest() throws Exception {
+        EnhancementManifest manifest = EnhancementManifest.load(tempDir, "foo");
+        assertFalse(manifest.isUpToDate("org.foo.Bar", "bar".getBytes()));
+        assertEquals(0, manifest.getHits());
+        assertEquals(1, manifest.getMisses());
+        assertEquals(new File(tempDir, EnhancementManifest.FILE_NAME), manifest.getFile());
+    }
+
+    @Test
+    void testStoreAndReload() throws Exception {
+        EnhancementManifest manifest = EnhancementManifest.load(tempDir, "foo");
+        manifest.record("org.foo.Bar", "bar".getBytes());
+        manifest.record("org.foo.Baz", "baz".getBytes());
+        manifest.store();
+        List<String> lines = Files.readAllLines(manifest.getFile().toPath());
+        assertEquals(3, lines.size());
+        assertEquals("foo", lines.get(0));
+        assertEquals("org.foo.Bar=" + EnhancementManifest.hash("bar".getBytes()), lines.get(1));
+        manifest = EnhancementManifest.load(tempDir, "foo");
+        assertTrue(manifest.isUpToDate("org.foo.Bar", "bar".getBytes()));
+        assertFalse(manifest.isUpToDate("org.foo.Baz", "changed".getBytes()));
+        assertEquals(1, manifest.getHits());
+        assertEquals(1, manifest.getMisses());
+        // only the class that was confirmed up to date is retained
+        manifest.store();
+        lines = Files.readAllLines(manifest.getFile().toPath());
+        assertEquals(2, lines.size());
+    }
+
+    @Test
+    void testRetainPrevious() throws Exception {
+        EnhancementManifest manifest = EnhancementManifest.load(tempDir, "foo");
+        manifest.record("org.foo.Bar", "bar".getBytes());
+        manifest.record("org.foo.Baz", "baz".getBytes());
+        manifest.store();
+        manifest = EnhancementManifest.load(tempDir, "foo");
+        manifest.record("org.foo.Bar", "changed".getBytes());
+        manifest.retainPrevious();
+        manifest.store();
+        manifest = EnhancementManifest.load(tempDir, "foo");
+        assertTrue(manifest.isUpToDate("org.foo.Bar", "changed".getBytes()));
+        assertTrue(manifest.isUpToDate("org.foo.Baz", "baz".getBytes()));
+    }
+
+    @Test
+    void testFingerprintMismatch() throws Exception {
+        EnhancementManifest manifest = EnhancementManifest.load(tempDir, "foo");
+        manifest.record("org.foo.Bar", "bar".getBytes());
+        manifest.store();
+        manifest = EnhancementManifest.load(tempDir, "bar");
+        assertFalse(manifest.isUpToDate("org.foo.Bar", "bar".getBytes()));
+    }
+
+    @Test
+    void testHash() {
+        assertEquals(64, EnhancementManifest.hash("foo".getBytes()).length());
+        assertEquals(EnhancementManifest.hash("foo".getBytes()), EnhancementManifest.hash("foo".getBytes()));
+        assertNotEquals(EnhancementManifest.hash("foo".getBytes()), EnhancementManifest.hash("bar".getBytes()));
+    }
+
+}
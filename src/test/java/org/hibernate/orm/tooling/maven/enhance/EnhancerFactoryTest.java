@@ -0,0 +1,138 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.hibernate.bytecode.enhance.internal.bytebuddy.EnhancerImpl;
+import org.hibernate.bytecode.enhance.spi.Enhancer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.bytebuddy.pool.TypePool;
+
+public class EnhancerFactoryTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testGetInstance() {
+        EnhancerFactory factory = EnhancerFactory.getInstance();
+        assertNotNull(factory.getBytecodeProvider());
+        assertSame(factory, EnhancerFactory.getInstance());
+    }
+
+    @Test
+    void testEnhancersShareOnlyTheCoreState() throws Exception {
+        File fooFolder = new File(tempDir, "foo");
+        File barFolder = new File(tempDir, "bar");
+        fooFolder.mkdirs();
+        barFolder.mkdirs();
+        try (URLClassLoader fooLoader = new URLClassLoader(new URL[] { fooFolder.toURI().toURL() });
+                URLClassLoader barLoader = new URLClassLoader(new URL[] { barFolder.toURI().toURL() })) {
+            EnhancementContext fooContext = new EnhancementContext(fooLoader, false, false, false, false);
+            EnhancementContext barContext = new EnhancementContext(barLoader, false, false, false, false);
+            Enhancer fooEnhancer = EnhancerFactory.getInstance().createEnhancer(fooContext);
+            Enhancer barEnhancer = EnhancerFactory.getInstance().createEnhancer(barContext);
+            assertNotSame(fooEnhancer, barEnhancer);
+            // the ByteBuddy state and the core type pool are shared
+            assertSame(get(fooEnhancer, EnhancerImpl.class, "byteBuddyState"), get(barEnhancer, EnhancerImpl.class, "byteBuddyState"));
+            Object fooTypePool = get(fooEnhancer, EnhancerImpl.class, "typePool");
+            Object barTypePool = get(barEnhancer, EnhancerImpl.class, "typePool");
+            assertSame(
+                get(fooTypePool, TypePool.AbstractBase.Hierarchical.class, "parent"),
+                get(barTypePool, TypePool.AbstractBase.Hierarchical.class, "parent"));
+            // the type pools of the modules and their enhancement contexts are not
+            assertNotSame(fooTypePool, barTypePool);
+            Object fooEnhancementContext = get(fooEnhancer, EnhancerImpl.class, "enhancementContext");
+            assertSame(fooContext, get(fooEnhancementContext, fooEnhancementContext.getClass(), "enhancementContext"));
+        }
+    }
+
+    @Test
+    void testClasspathTypePoolIsReusedUntilAJarChanges() throws Exception {
+        File sourceFolder = new File(tempDir, "src/org/lib");
+        sourceFolder.mkdirs();
+        Files.writeString(new File(sourceFolder, "Base.java").toPath(), "package org.lib; public class Base { protected String name; }");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, new File(sourceFolder, "Base.java").getAbsolutePath()));
+        File jar = new File(tempDir, "lib.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("org/lib/Base.class"));
+            out.write(Files.readAllBytes(new File(sourceFolder, "Base.class").toPath()));
+        }
+        EnhancerFactory factory = EnhancerFactory.getInstance();
+        assertSame(factory.getTypePool(List.of()), factory.getTypePool(List.of(new File(tempDir, "missing.jar"))));
+        TypePool typePool = factory.getTypePool(List.of(jar));
+        assertNotSame(factory.getTypePool(List.of()), typePool);
+        assertSame(typePool, factory.getTypePool(List.of(jar)));
+        assertTrue(typePool.describe("org.lib.Base").isResolved());
+        assertEquals("java.lang.Object", typePool.describe("org.lib.Base").resolve().getSuperClass().asErasure().getName());
+        assertTrue(typePool.describe("java.lang.String").isResolved());
+        // a rebuilt JAR invalidates the pool
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        TypePool changedTypePool = factory.getTypePool(List.of(jar));
+        assertNotSame(typePool, changedTypePool);
+        assertSame(changedTypePool, factory.getTypePool(List.of(jar)));
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() })) {
+            Enhancer enhancer = factory.createEnhancer(new EnhancementContext(loader, false, false, false, false), List.of(jar), null, null);
+            assertSame(changedTypePool, get(get(enhancer, EnhancerImpl.class, "typePool"), TypePool.AbstractBase.Hierarchical.class, "parent"));
+        }
+    }
+
+    @Test
+    void testClasspathTypePoolReadsThroughTheIndex() throws Exception {
+        File sourceFolder = new File(tempDir, "src/org/lib");
+        sourceFolder.mkdirs();
+        Files.writeString(new File(sourceFolder, "Indexed.java").toPath(), "package org.lib; public class Indexed extends java.util.ArrayList<String> { }");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, new File(sourceFolder, "Indexed.java").getAbsolutePath()));
+        File jar = new File(tempDir, "indexed.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("org/lib/Indexed.class"));
+            out.write(Files.readAllBytes(new File(sourceFolder, "Indexed.class").toPath()));
+        }
+        File indexDirectory = new File(tempDir, "index");
+        TypePool typePool = EnhancerFactory.getInstance().getTypePool(List.of(jar), indexDirectory);
+        assertEquals(1, indexDirectory.list().length);
+        assertEquals("java.util.ArrayList", typePool.describe("org.lib.Indexed").resolve().getSuperClass().asErasure().getName());
+    }
+
+    private static Object get(Object target, Class<?> declaringClass, String fieldName) throws Exception {
+        Field field = declaringClass.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ProjectClassFilesTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testLocate() throws Exception {
+        File classesDirectory = new File(tempDir, "classes");
+        try (ClassBytesStore classBytes = new ClassBytesStore(3, tempDir)) {
+            ProjectClassFiles projectClassFiles = new ProjectClassFiles(classBytes, classesDirectory);
+            classBytes.put(new File(classesDirectory, "org/foo/Bar.class"), "bar".getBytes());
+            classBytes.put(new File(classesDirectory, "org/foo/Baz.class"), "baz".getBytes());
+            classBytes.put(new File(tempDir, "org/foo/Foo.class"), "foo".getBytes());
+            assertArrayEquals("bar".getBytes(), projectClassFiles.locate("org.foo.Bar").resolve());
+            // beyond the memory limit the bytes are located in the spill file
+            assertArrayEquals("baz".getBytes(), projectClassFiles.locate("org.foo.Baz").resolve());
+            // only the classes directory is looked at
+            assertFalse(projectClassFiles.locate("org.foo.Foo").isResolved());
+            assertEquals(2, projectClassFiles.getHits());
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ProjectClassLoaderTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testMissingClassesAreRemembered() throws Exception {
+        try (ProjectClassLoader classLoader = new ProjectClassLoader(
+                new URL[] { tempDir.toURI().toURL() },
+                getClass().getClassLoader())) {
+            assertSame(String.class, classLoader.loadClass("java.lang.String"));
+            ClassNotFoundException first = assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("org.foo.Missing"));
+            assertEquals(0, classLoader.getSavedLookups());
+            ClassNotFoundException second = assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("org.foo.Missing"));
+            assertEquals(1, classLoader.getSavedLookups());
+            assertEquals(first.getMessage(), second.getMessage());
+            assertEquals(0, second.getStackTrace().length);
+        }
+    }
+
+    @Test
+    void testMissingResourcesAreRemembered() throws Exception {
+        File fooFile = new File(tempDir, "org/foo/Foo.txt");
+        fooFile.getParentFile().mkdirs();
+        Files.writeString(fooFile.toPath(), "foo");
+        try (ProjectClassLoader classLoader = new ProjectClassLoader(
+                new URL[] { tempDir.toURI().toURL() },
+                getClass().getClassLoader())) {
+            assertNotNull(classLoader.getResource("org/foo/Foo.txt"));
+            assertNull(classLoader.getResource("org/foo/Bar.class"));
+            assertNull(classLoader.getResourceAsStream("org/foo/Bar.class"));
+            assertEquals(1, classLoader.getSavedLookups());
+            assertNotNull(classLoader.getResourceAsStream("org/foo/Foo.txt").readAllBytes());
+            assertEquals(1, classLoader.getSavedLookups());
+        }
+    }
+
+}
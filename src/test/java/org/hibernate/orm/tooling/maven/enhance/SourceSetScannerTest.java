@@ -0,0 +1,123 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.maven.shared.model.fileset.FileSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SourceSetScannerTest {
+
+    @TempDir
+    File tempDir;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        for (String fileName : List.of(
+                "Root.class",
+                "org/foo/Bar.class",
+                "org/foo/Foo.txt",
+                "org/foo/sub/Sub.class",
+                "org/baz/Baz.class",
+                ".git/Git.class")) {
+            File file = new File(tempDir, fileName);
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+    }
+
+    @Test
+    void testToRegex() {
+        assertEquals("(?:.*/)?[^/]*\\Q.class\\E", SourceSetScanner.toRegex("**/*.class"));
+        assertEquals(".*", SourceSetScanner.toRegex("**"));
+        assertEquals("\\Qorg/\\E[^/]\\Qo\\E[^/]*", SourceSetScanner.toRegex("org/?o*"));
+    }
+
+    @Test
+    void testIsIncluded() {
+        FileSet fileSet = new FileSet();
+        fileSet.addInclude("**/*.class");
+        fileSet.addExclude("**/baz/**");
+        fileSet.addExclude("org/foo/");
+        SourceSetScanner scanner = new SourceSetScanner(tempDir.toPath(), fileSet);
+        assertTrue(scanner.isIncluded("Root.class"));
+        assertTrue(scanner.isIncluded("org/bar/Bar.class"));
+        assertFalse(scanner.isIncluded("org/bar/Bar.txt"));
+        assertFalse(scanner.isIncluded("org/baz/Baz.class"));
+        assertFalse(scanner.isIncluded("org/foo/Foo.class"));
+        assertTrue(scanner.isExcludedDirectory("org/baz"));
+        assertTrue(scanner.isExcludedDirectory("baz"));
+        assertTrue(scanner.isExcludedDirectory("org/foo"));
+        assertFalse(scanner.isExcludedDirectory("org/bar"));
+        assertTrue(scanner.isExcludedDirectory(".git"));
+    }
+
+    @Test
+    void testContains() {
+        FileSet fileSet = new FileSet();
+        fileSet.addInclude("**/*.class");
+        fileSet.addExclude("**/baz/**");
+        SourceSetScanner scanner = new SourceSetScanner(tempDir.toPath(), fileSet);
+        assertTrue(scanner.contains(new File(tempDir, "org/foo/Bar.class").toPath()));
+        assertFalse(scanner.contains(new File(tempDir, "org/foo/Foo.txt").toPath()));
+        assertFalse(scanner.contains(new File(tempDir, "org/baz/Baz.class").toPath()));
+        assertFalse(scanner.contains(new File(tempDir.getParentFile(), "Other.class").toPath()));
+    }
+
+    @Test
+    void testScan() throws Exception {
+        FileSet fileSet = new FileSet();
+        fileSet.addExclude("**/baz/**");
+        SourceSetScanner scanner = new SourceSetScanner(tempDir.toPath(), fileSet);
+        List<String> scanned = new ArrayList<String>();
+        scanner.scan(path -> scanned.add(tempDir.toPath().relativize(path).toString().replace(File.separatorChar, '/')));
+        assertEquals(
+            new TreeSet<String>(List.of("Root.class", "org/foo/Bar.class", "org/foo/Foo.txt", "org/foo/sub/Sub.class")),
+            new TreeSet<String>(scanned));
+    }
+
+    @Test
+    void testScanInParallel() throws Exception {
+        FileSet fileSet = new FileSet();
+        fileSet.addInclude("**/*.class");
+        SourceSetScanner scanner = new SourceSetScanner(tempDir.toPath(), fileSet);
+        List<Path> sequential = new ArrayList<Path>();
+        scanner.scan(sequential::add);
+        List<Path> parallel = Collections.synchronizedList(new ArrayList<Path>());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            scanner.scan(parallel::add, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(4, sequential.size());
+        assertEquals(new TreeSet<Path>(sequential), new TreeSet<Path>(parallel));
+    }
+
+}
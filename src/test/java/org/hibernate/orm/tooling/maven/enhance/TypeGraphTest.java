@@ -0,0 +1,64 @@
+/*
+ * Copyright 20024 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.orm.tooling.maven.enhance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TypeGraphTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testDependentsOf() throws Exception {
+        TypeGraph graph = TypeGraph.load(tempDir, "foo");
+        graph.record("org.foo.Base", Set.of());
+        graph.record("org.foo.Bar", Set.of("org.foo.Base", "org.foo.Address"));
+        graph.record("org.foo.Baz", Set.of("org.foo.Bar"));
+        graph.record("org.foo.Address", Set.of());
+        assertEquals(Set.of("org.foo.Bar", "org.foo.Baz"), graph.dependentsOf(List.of("org.foo.Base")));
+        assertEquals(Set.of("org.foo.Bar", "org.foo.Baz"), graph.dependentsOf(List.of("org.foo.Address")));
+        assertEquals(Set.of("org.foo.Baz"), graph.dependentsOf(List.of("org.foo.Bar")));
+        assertTrue(graph.dependentsOf(List.of("org.foo.Baz")).isEmpty());
+    }
+
+    @Test
+    void testStoreAndReload() throws Exception {
+        TypeGraph graph = TypeGraph.load(tempDir, "foo");
+        graph.record("org.foo.Bar", Set.of("org.foo.Base"));
+        graph.record("org.foo.Base", Set.of());
+        graph.store();
+        List<String> lines = Files.readAllLines(graph.getFile().toPath());
+        assertEquals(List.of("foo", "org.foo.Bar=org.foo.Base", "org.foo.Base="), lines);
+        // the previous graph is completed with what this build records
+        graph = TypeGraph.load(tempDir, "foo");
+        graph.record("org.foo.Baz", Set.of("org.foo.Bar"));
+        assertEquals(Set.of("org.foo.Bar", "org.foo.Baz"), graph.dependentsOf(List.of("org.foo.Base")));
+        // a different configuration starts from scratch
+        graph = TypeGraph.load(tempDir, "bar");
+        assertTrue(graph.dependentsOf(List.of("org.foo.Base")).isEmpty());
+    }
+
+}